@@ -0,0 +1,261 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable YOLO result of one area (or of the astronaut's target item, area ID 0).
+ * Passed from the vision worker to the mission thread, so it holds no Mats and no
+ * mutable state.
+ *
+ * Counts are indexed by class ID of the model's class table. The reported landmark is the
+ * landmark class with the most confident selected detection; its count is what setAreaInfo
+ * receives. Name-keyed views are built on request (logging, mission summary).
+ */
+public final class AreaDetection {
+    public static final int NO_CLASS = -1;
+
+    private final int areaId;
+    private final ClassMetadata classMetadata;
+    private final int[] landmarkCounts;
+    private final int[] treasureCounts;
+    private final int landmarkClassId;
+    private final float landmarkConfidence;
+    private final int treasureClassId;
+    private final float treasureConfidence;
+    private final int frameCount;
+    private final long elapsedMs;
+
+    private AreaDetection(int areaId, ClassMetadata classMetadata, int[] landmarkCounts, int[] treasureCounts,
+                          int landmarkClassId, float landmarkConfidence,
+                          int treasureClassId, float treasureConfidence,
+                          int frameCount, long elapsedMs) {
+        this.areaId = areaId;
+        this.classMetadata = classMetadata;
+        this.landmarkCounts = landmarkCounts;
+        this.treasureCounts = treasureCounts;
+        this.landmarkClassId = landmarkClassId;
+        this.landmarkConfidence = landmarkConfidence;
+        this.treasureClassId = treasureClassId;
+        this.treasureConfidence = treasureConfidence;
+        this.frameCount = frameCount;
+        this.elapsedMs = elapsedMs;
+    }
+
+    /**
+     * @param areaId Area identifier (0 = target)
+     * @param classMetadata Class table of the model
+     * @return Result without detections (area could not be processed)
+     */
+    public static AreaDetection empty(int areaId, ClassMetadata classMetadata) {
+        int[] none = new int[classMetadata.size()];
+        return new AreaDetection(areaId, classMetadata, none, none, NO_CLASS, 0f, NO_CLASS, 0f, 0, 0);
+    }
+
+    /**
+     * Build the result of a single frame
+     * @param areaId Area identifier (0 = target)
+     * @param result YOLO result of the frame
+     * @return Area result (1 frame, no timing)
+     */
+    public static AreaDetection fromResult(int areaId, YOLODetectionService.EnhancedDetectionResult result) {
+        ClassMetadata metadata = result.getClassMetadata();
+        int numClasses = metadata.size();
+        int[] landmarkCounts = new int[numClasses];
+        int[] treasureCounts = new int[numClasses];
+        for (int classId = 0; classId < numClasses; classId++) {
+            landmarkCounts[classId] = result.getLandmarkCount(classId);
+            treasureCounts[classId] = result.getTreasureCount(classId);
+        }
+
+        // Most confident selected detection of each group
+        int landmarkClassId = NO_CLASS;
+        float landmarkConfidence = 0f;
+        int treasureClassId = NO_CLASS;
+        float treasureConfidence = 0f;
+        for (YOLODetectionService.FinalDetection detection : result.getDetections()) {
+            if (metadata.isLandmark(detection.classId) && detection.confidence > landmarkConfidence) {
+                landmarkClassId = detection.classId;
+                landmarkConfidence = detection.confidence;
+            } else if (metadata.isTreasure(detection.classId) && detection.confidence > treasureConfidence) {
+                treasureClassId = detection.classId;
+                treasureConfidence = detection.confidence;
+            }
+        }
+
+        // Counted but not selected (e.g. target image without two landmark types)
+        if (landmarkClassId == NO_CLASS) {
+            landmarkClassId = firstCounted(landmarkCounts);
+        }
+        if (treasureClassId == NO_CLASS) {
+            treasureClassId = firstCounted(treasureCounts);
+        }
+
+        return new AreaDetection(areaId, metadata, landmarkCounts, treasureCounts,
+                landmarkClassId, landmarkConfidence, treasureClassId, treasureConfidence, 1, 0);
+    }
+
+    /**
+     * @param frameCount Number of frames the result was taken from
+     * @param elapsedMs Vision time of the area (ms)
+     * @return Copy with the timing data set
+     */
+    public AreaDetection withTiming(int frameCount, long elapsedMs) {
+        return new AreaDetection(areaId, classMetadata, landmarkCounts, treasureCounts,
+                landmarkClassId, landmarkConfidence, treasureClassId, treasureConfidence, frameCount, elapsedMs);
+    }
+
+    /**
+     * @param counts Treasure count per class ID (copied)
+     * @return Copy with the treasure counts replaced (e.g. by a vote over several frames)
+     */
+    public AreaDetection withTreasureCounts(int[] counts) {
+        int[] treasures = Arrays.copyOf(counts, classMetadata.size());
+        boolean keepBest = treasureClassId != NO_CLASS && treasures[treasureClassId] > 0;
+        return new AreaDetection(areaId, classMetadata, landmarkCounts, treasures,
+                landmarkClassId, landmarkConfidence,
+                keepBest ? treasureClassId : firstCounted(treasures), keepBest ? treasureConfidence : 0f,
+                frameCount, elapsedMs);
+    }
+
+    private static int firstCounted(int[] counts) {
+        for (int classId = 0; classId < counts.length; classId++) {
+            if (counts[classId] > 0) {
+                return classId;
+            }
+        }
+        return NO_CLASS;
+    }
+
+    public int getAreaId() {
+        return areaId;
+    }
+
+    public ClassMetadata getClassMetadata() {
+        return classMetadata;
+    }
+
+    /**
+     * @param classId Class ID
+     * @return Landmark count of the class (0 if none or invalid ID)
+     */
+    public int getLandmarkCount(int classId) {
+        return classId >= 0 && classId < landmarkCounts.length ? landmarkCounts[classId] : 0;
+    }
+
+    /**
+     * @param classId Class ID
+     * @return Treasure count of the class (0 if none or invalid ID)
+     */
+    public int getTreasureCount(int classId) {
+        return classId >= 0 && classId < treasureCounts.length ? treasureCounts[classId] : 0;
+    }
+
+    public boolean hasLandmark() {
+        return landmarkClassId != NO_CLASS;
+    }
+
+    public boolean hasTreasure() {
+        return treasureClassId != NO_CLASS;
+    }
+
+    /**
+     * @return Class ID of the reported landmark, or NO_CLASS
+     */
+    public int getLandmarkClassId() {
+        return landmarkClassId;
+    }
+
+    /**
+     * @return Name of the reported landmark, or null
+     */
+    public String getLandmarkName() {
+        return classMetadata.getName(landmarkClassId);
+    }
+
+    /**
+     * @return Count of the reported landmark (what setAreaInfo receives)
+     */
+    public int getReportedLandmarkCount() {
+        return getLandmarkCount(landmarkClassId);
+    }
+
+    /**
+     * @return Confidence of the reported landmark (0 if it was counted but not selected)
+     */
+    public float getLandmarkConfidence() {
+        return landmarkConfidence;
+    }
+
+    /**
+     * @return Class ID of the most confident treasure, or NO_CLASS
+     */
+    public int getTreasureClassId() {
+        return treasureClassId;
+    }
+
+    /**
+     * @return Name of the most confident treasure, or null
+     */
+    public String getTreasureName() {
+        return classMetadata.getName(treasureClassId);
+    }
+
+    public float getTreasureConfidence() {
+        return treasureConfidence;
+    }
+
+    /**
+     * @return Number of frames the result was taken from (0 if none could be processed)
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return Vision time of the area (ms)
+     */
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    /**
+     * @return Names of the detected treasure types, in class ID order
+     */
+    public Set<String> getTreasureTypes() {
+        Set<String> types = new LinkedHashSet<>();
+        for (int classId = 0; classId < treasureCounts.length; classId++) {
+            if (treasureCounts[classId] > 0) {
+                types.add(classMetadata.getName(classId));
+            }
+        }
+        return Collections.unmodifiableSet(types);
+    }
+
+    /**
+     * @return Landmark quantities by name, reported landmark first
+     */
+    public Map<String, Integer> getLandmarkQuantities() {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        if (hasLandmark()) {
+            quantities.put(getLandmarkName(), getReportedLandmarkCount());
+        }
+        for (int classId = 0; classId < landmarkCounts.length; classId++) {
+            if (landmarkCounts[classId] > 0 && classId != landmarkClassId) {
+                quantities.put(classMetadata.getName(classId), landmarkCounts[classId]);
+            }
+        }
+        return Collections.unmodifiableMap(quantities);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Area %d: landmark %s x %d (conf %.2f), treasures %s, %d frames, %d ms",
+                areaId, hasLandmark() ? getLandmarkName() : "none", getReportedLandmarkCount(), landmarkConfidence,
+                getTreasureTypes(), frameCount, elapsedMs);
+    }
+}
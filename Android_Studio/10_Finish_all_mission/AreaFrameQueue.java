@@ -0,0 +1,104 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands the frames of one area from the mission thread to the vision worker as they are
+ * captured. The worker marks the queue settled once its vote agrees, so the mission thread
+ * stops capturing instead of always taking every frame.
+ *
+ * Frames in the queue belong to the queue; frames returned by take() belong to the worker.
+ * After close() queued frames are released and later frames are released on add().
+ */
+public class AreaFrameQueue {
+    private final ArrayDeque<Mat> frames = new ArrayDeque<>();
+    private int addedCount = 0;
+    private boolean inputClosed = false;
+    private boolean settled = false;
+    private boolean closed = false;
+
+    /**
+     * Add a captured frame (mission thread)
+     * @param frame NavCam image (the queue takes ownership)
+     */
+    public synchronized void add(Mat frame) {
+        if (closed) {
+            frame.release();
+            return;
+        }
+        frames.add(frame);
+        addedCount++;
+        notifyAll();
+    }
+
+    /**
+     * No more frames will be added (mission thread)
+     */
+    public synchronized void closeInput() {
+        inputClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * Wait for the worker's vote to settle (mission thread)
+     * @param timeoutMs Longest time to wait
+     * @return true if the vote has settled or the worker has stopped, i.e. no more frames are needed
+     */
+    public synchronized boolean awaitSettled(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long remaining = timeoutMs;
+        while (!settled && !closed && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return settled || closed;
+    }
+
+    /**
+     * Take the next frames (vision worker). Blocks until maxFrames frames are queued or the
+     * input is closed.
+     * @param maxFrames Number of frames wanted
+     * @return Up to maxFrames frames (caller releases them), empty once all frames were taken
+     */
+    public synchronized List<Mat> take(int maxFrames) throws InterruptedException {
+        while (frames.size() < maxFrames && !inputClosed && !closed) {
+            wait();
+        }
+        List<Mat> taken = new ArrayList<>(maxFrames);
+        while (taken.size() < maxFrames && !frames.isEmpty()) {
+            taken.add(frames.poll());
+        }
+        return taken;
+    }
+
+    /**
+     * The vote has settled; stop capturing (vision worker)
+     */
+    public synchronized void setSettled() {
+        settled = true;
+        notifyAll();
+    }
+
+    /**
+     * Release queued frames and reject further ones (worker done, or task cancelled)
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Mat frame : frames) {
+            frame.release();
+        }
+        frames.clear();
+        notifyAll();
+    }
+
+    /**
+     * @return Number of frames captured for the area
+     */
+    public synchronized int getAddedCount() {
+        return addedCount;
+    }
+}
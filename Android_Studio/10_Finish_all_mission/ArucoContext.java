@@ -0,0 +1,282 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.util.Log;
+import org.opencv.aruco.Aruco;
+import org.opencv.aruco.DetectorParameters;
+import org.opencv.aruco.Dictionary;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ArUco detection state shared by every marker search in a mission.
+ * Holds the DICT_5X5_250 dictionary, detector parameters and NavCam intrinsics,
+ * built once, plus a pool of corner/id buffers so each detection reuses its containers.
+ * The dictionary, parameters and intrinsics are read-only after construction and may be
+ * used from the vision worker and the mission thread at the same time.
+ *
+ * detectNear() searches a padded region around the marker's expected pixel position
+ * first and only falls back to the full 1280x960 frame when nothing is found there.
+ */
+public class ArucoContext {
+    private static final String TAG = "ArucoContext";
+
+    private final Dictionary dictionary;
+    private final DetectorParameters detectorParameters;
+    private final Mat cameraMatrix;
+    private final Mat distCoeffs;
+    private final MatOfDouble distCoeffsDouble;
+    private final ArrayDeque<MarkerBuffers> bufferPool = new ArrayDeque<>();
+
+    // Expected marker center in the full frame, by area ID (guarded by this)
+    private final Map<Integer, Point> predictedCenters = new HashMap<>();
+    private int roiHalfSize = 200;
+    private double roiScale = 1.0;
+
+    /**
+     * @param intrinsics Result of api.getNavCamIntrinsics(): [camera matrix (9), distortion (5)]
+     */
+    public ArucoContext(double[][] intrinsics) {
+        dictionary = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
+
+        // OpenCV defaults. maxMarkerPerimeterRate (relative to the larger image side) stays at
+        // its default 4.0: the astronaut's target marker is close to the NavCam and a lower
+        // limit could reject it.
+        detectorParameters = DetectorParameters.create();
+
+        cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+        cameraMatrix.put(0, 0, intrinsics[0]);
+
+        distCoeffs = new Mat(1, 5, CvType.CV_64F);
+        distCoeffs.put(0, 0, intrinsics[1]);
+
+        double[] distData = new double[5];
+        distCoeffs.get(0, 0, distData);
+        distCoeffsDouble = new MatOfDouble();
+        distCoeffsDouble.fromArray(distData);
+
+        Log.i(TAG, "ArUco context created (DICT_5X5_250, NavCam intrinsics cached)");
+    }
+
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return Detector parameters used by detect(); adjust before the first detection
+     */
+    public DetectorParameters getDetectorParameters() {
+        return detectorParameters;
+    }
+
+    /**
+     * @return 3x3 CV_64F camera matrix (shared, do not release)
+     */
+    public Mat getCameraMatrix() {
+        return cameraMatrix;
+    }
+
+    /**
+     * @return 1x5 CV_64F distortion coefficients (shared, do not release)
+     */
+    public Mat getDistCoeffs() {
+        return distCoeffs;
+    }
+
+    /**
+     * @return Distortion coefficients as MatOfDouble for Calib3d.projectPoints (shared, do not release)
+     */
+    public MatOfDouble getDistCoeffsDouble() {
+        return distCoeffsDouble;
+    }
+
+    /**
+     * Set where the marker of an area is expected in the NavCam image
+     * @param areaId Area identifier (0 = astronaut target)
+     * @param center Expected marker center in full-frame pixels
+     */
+    public synchronized void setPredictedCenter(int areaId, Point center) {
+        predictedCenters.put(areaId, center);
+    }
+
+    /**
+     * @param roiHalfSize Half width/height of the search region around the predicted center
+     */
+    public synchronized void setRoiHalfSize(int roiHalfSize) {
+        this.roiHalfSize = roiHalfSize;
+    }
+
+    /**
+     * @param roiScale Scale applied to the search region before detection (e.g. 0.5 for one
+     *                 pyramid level down; 1.0 keeps full resolution and exact corners)
+     */
+    public synchronized void setRoiScale(double roiScale) {
+        this.roiScale = roiScale;
+    }
+
+    /**
+     * Take a corner/id buffer from the pool. Return it with releaseBuffers() when done.
+     */
+    public synchronized MarkerBuffers acquireBuffers() {
+        MarkerBuffers buffers = bufferPool.poll();
+        return buffers != null ? buffers : new MarkerBuffers();
+    }
+
+    /**
+     * Return a buffer to the pool. Detected corner Mats are released; clone any you keep.
+     */
+    public synchronized void releaseBuffers(MarkerBuffers buffers) {
+        buffers.clear();
+        bufferPool.push(buffers);
+    }
+
+    /**
+     * Detect markers into the given buffers (previous contents are released first)
+     * @param image NavCam image
+     * @param buffers Buffers from acquireBuffers()
+     * @return Number of detected markers
+     */
+    public int detect(Mat image, MarkerBuffers buffers) {
+        buffers.clear();
+        Aruco.detectMarkers(image, dictionary, buffers.corners, buffers.ids, detectorParameters);
+        return buffers.corners.size();
+    }
+
+    /**
+     * Detect markers around the area's predicted marker position, falling back to the
+     * full frame if the region has no marker or no prediction exists. Corners are always
+     * returned in full-frame coordinates, and a successful detection updates the prediction.
+     * @param image NavCam image
+     * @param areaId Area identifier (0 = astronaut target)
+     * @param buffers Buffers from acquireBuffers()
+     * @return Number of detected markers
+     */
+    public int detectNear(Mat image, int areaId, MarkerBuffers buffers) {
+        Point predicted;
+        int halfSize;
+        double scale;
+        synchronized (this) {
+            predicted = predictedCenters.get(areaId);
+            halfSize = roiHalfSize;
+            scale = roiScale;
+        }
+
+        if (predicted != null) {
+            int x0 = Math.max(0, (int) Math.round(predicted.x) - halfSize);
+            int y0 = Math.max(0, (int) Math.round(predicted.y) - halfSize);
+            int x1 = Math.min(image.cols(), (int) Math.round(predicted.x) + halfSize);
+            int y1 = Math.min(image.rows(), (int) Math.round(predicted.y) + halfSize);
+
+            if (x1 > x0 && y1 > y0) {
+                Rect roi = new Rect(x0, y0, x1 - x0, y1 - y0);
+                int count = detectInRegion(image, roi, scale, buffers);
+                if (count > 0) {
+                    Log.i(TAG, String.format("Area %d: %d markers in ROI %dx%d at (%d, %d)",
+                            areaId, count, roi.width, roi.height, roi.x, roi.y));
+                    updatePrediction(areaId, predicted, buffers);
+                    return count;
+                }
+            }
+            Log.i(TAG, "Area " + areaId + ": no marker in ROI, searching full frame");
+        }
+
+        int count = detect(image, buffers);
+        if (count > 0) {
+            updatePrediction(areaId, predicted != null ? predicted
+                    : new Point(image.cols() / 2.0, image.rows() / 2.0), buffers);
+        }
+        return count;
+    }
+
+    /**
+     * Detect markers inside roi (optionally downscaled) and map the corners back to the full frame
+     */
+    private int detectInRegion(Mat image, Rect roi, double scale, MarkerBuffers buffers) {
+        Mat region = image.submat(roi);
+        Mat scaled = region;
+        if (scale != 1.0) {
+            scaled = new Mat();
+            Imgproc.resize(region, scaled, new Size(), scale, scale, Imgproc.INTER_AREA);
+        }
+
+        int count = detect(scaled, buffers);
+
+        float[] cornerData = new float[8];
+        for (Mat corner : buffers.corners) {
+            corner.get(0, 0, cornerData);
+            for (int j = 0; j < 4; j++) {
+                cornerData[j * 2] = (float) (cornerData[j * 2] / scale + roi.x);
+                cornerData[j * 2 + 1] = (float) (cornerData[j * 2 + 1] / scale + roi.y);
+            }
+            corner.put(0, 0, cornerData);
+        }
+
+        if (scaled != region) {
+            scaled.release();
+        }
+        region.release();
+        return count;
+    }
+
+    /**
+     * Move the area's prediction to the detected marker nearest to the previous prediction
+     */
+    private void updatePrediction(int areaId, Point previous, MarkerBuffers buffers) {
+        float[] cornerData = new float[8];
+        Point best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (Mat corner : buffers.corners) {
+            corner.get(0, 0, cornerData);
+            double centerX = (cornerData[0] + cornerData[2] + cornerData[4] + cornerData[6]) / 4.0;
+            double centerY = (cornerData[1] + cornerData[3] + cornerData[5] + cornerData[7]) / 4.0;
+            double distance = Math.hypot(centerX - previous.x, centerY - previous.y);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = new Point(centerX, centerY);
+            }
+        }
+        if (best != null) {
+            setPredictedCenter(areaId, best);
+        }
+    }
+
+    /**
+     * Release the intrinsics and pooled buffers at the end of the mission
+     */
+    public synchronized void release() {
+        cameraMatrix.release();
+        distCoeffs.release();
+        distCoeffsDouble.release();
+        for (MarkerBuffers buffers : bufferPool) {
+            buffers.clear();
+            buffers.ids.release();
+        }
+        bufferPool.clear();
+    }
+
+    /**
+     * Reusable output containers for Aruco.detectMarkers.
+     * The ids Mat keeps its native allocation between calls.
+     */
+    public static final class MarkerBuffers {
+        public final List<Mat> corners = new ArrayList<>();
+        public final Mat ids = new Mat();
+
+        void clear() {
+            for (Mat corner : corners) {
+                corner.release();
+            }
+            corners.clear();
+        }
+    }
+}
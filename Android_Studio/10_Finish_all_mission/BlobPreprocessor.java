@@ -0,0 +1,61 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.*;
+import org.opencv.dnn.Dnn;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Fused preprocessing with Dnn.blobFromImage: resize, 1/255 scaling, BGR->RGB swap
+ * and HWC->CHW reorder in a single OpenCV call.
+ * Gray images are blobbed as one plane and the plane is written three times,
+ * which is equivalent to GRAY2RGB but avoids converting the full image.
+ */
+public class BlobPreprocessor implements Preprocessor {
+    private static final double SCALE = 1.0 / 255.0;
+    private static final Scalar ZERO_MEAN = new Scalar(0, 0, 0);
+    private static final int[] BLOB_ORIGIN = {0, 0, 0, 0};
+
+    private final Size inputSize;
+    private final int planeSize;
+
+    // Reusable buffers
+    private final float[] blobBuffer;
+    private final Mat bgrImage = new Mat();
+
+    public BlobPreprocessor(int inputSize) {
+        this.inputSize = new Size(inputSize, inputSize);
+        this.planeSize = inputSize * inputSize;
+        this.blobBuffer = new float[planeSize * 3];
+    }
+
+    @Override
+    public void preprocess(Mat image, FloatBuffer target) {
+        Mat source = image;
+        if (image.channels() == 4) {
+            // blobFromImage keeps all 4 channels, so drop alpha first
+            Imgproc.cvtColor(image, bgrImage, Imgproc.COLOR_BGRA2BGR);
+            source = bgrImage;
+        }
+
+        boolean isGray = source.channels() == 1;
+        Mat blob = Dnn.blobFromImage(source, SCALE, inputSize, ZERO_MEAN, !isGray, false);
+
+        blob.get(BLOB_ORIGIN, blobBuffer);
+        if (isGray) {
+            for (int c = 0; c < 3; c++) {
+                target.put(blobBuffer, 0, planeSize);
+            }
+        } else {
+            target.put(blobBuffer);
+        }
+
+        blob.release();
+    }
+
+    @Override
+    public String getName() {
+        return "blobFromImage";
+    }
+}
@@ -0,0 +1,32 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * CLAHE with a fixed clip limit and tile grid. The native CLAHE object is created once
+ * and reused; apply() is synchronized because it keeps internal buffers.
+ */
+public class ClaheEnhancer implements ImageEnhancer {
+    private final double clipLimit;
+    private final int tilesGridSize;
+    private final CLAHE clahe;
+
+    public ClaheEnhancer(double clipLimit, int tilesGridSize) {
+        this.clipLimit = clipLimit;
+        this.tilesGridSize = tilesGridSize;
+        this.clahe = Imgproc.createCLAHE(clipLimit, new Size(tilesGridSize, tilesGridSize));
+    }
+
+    @Override
+    public synchronized void apply(Mat src, Mat dst) {
+        clahe.apply(src, dst);
+    }
+
+    @Override
+    public String getName() {
+        return String.format("CLAHE(clip %.1f, grid %dx%d)", clipLimit, tilesGridSize, tilesGridSize);
+    }
+}
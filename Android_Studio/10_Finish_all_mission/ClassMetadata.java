@@ -0,0 +1,208 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import ai.onnxruntime.OrtSession;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class names and groups (treasure / landmark) of a YOLO model.
+ * Group membership is a byte per class ID, so post-processing routes a candidate with
+ * one array lookup.
+ *
+ * Loaded with the model, first match wins:
+ *     1. class list asset next to the model (yolo_v8n_400_classes.txt), one "name group" per line
+ *        in class ID order, group = treasure | landmark | other
+ *     2. "names" entry of the ONNX metadata written by the Ultralytics export; treasure
+ *        classes are recognized by name (crystal, diamond, emerald)
+ *     3. built-in table of the current 11-class model
+ */
+public final class ClassMetadata {
+    private static final String TAG = "ClassMetadata";
+
+    public static final byte GROUP_OTHER = 0;
+    public static final byte GROUP_TREASURE = 1;
+    public static final byte GROUP_LANDMARK = 2;
+
+    // Class definitions matching Python code
+    private static final String[] DEFAULT_NAMES = {
+            "coin", "compass", "coral", "crystal", "diamond", "emerald",
+            "fossil", "key", "letter", "shell", "treasure_box"
+    };
+    private static final Set<String> TREASURE_NAMES = new HashSet<>(Arrays.asList("crystal", "diamond", "emerald"));
+    private static final Pattern ULTRALYTICS_NAME = Pattern.compile("(\\d+)\\s*:\\s*['\"]([^'\"]*)['\"]");
+
+    private static final ClassMetadata DEFAULTS = fromNames(DEFAULT_NAMES, "built-in");
+
+    private final String[] names;
+    private final byte[] groups;
+    private final String source;
+
+    private ClassMetadata(String[] names, byte[] groups, String source) {
+        this.names = names;
+        this.groups = groups;
+        this.source = source;
+    }
+
+    /**
+     * @return Table of the current 11-class model (coin ... treasure_box)
+     */
+    public static ClassMetadata defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Load the table for a model
+     * @param context Android context (for the class list asset)
+     * @param classListAsset Class list asset name
+     * @param session Loaded model session (for the ONNX metadata), may be null
+     * @return Class table (built-in table if nothing else is found)
+     */
+    public static ClassMetadata load(Context context, String classListAsset, OrtSession session) {
+        ClassMetadata metadata = readClassList(context, classListAsset);
+        if (metadata == null && session != null) {
+            metadata = readModelMetadata(session);
+        }
+        if (metadata == null) {
+            metadata = DEFAULTS;
+        }
+        Log.i(TAG, String.format("%d classes from %s (%d treasure, %d landmark)",
+                metadata.size(), metadata.source, metadata.count(GROUP_TREASURE), metadata.count(GROUP_LANDMARK)));
+        return metadata;
+    }
+
+    private static ClassMetadata readClassList(Context context, String assetName) {
+        List<String> names = new ArrayList<>();
+        List<Byte> groups = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(context.getAssets().open(assetName), "UTF-8"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                names.add(parts[0]);
+                groups.add(parts.length > 1 ? parseGroup(parts[1]) : groupByName(parts[0]));
+            }
+        } catch (IOException e) {
+            return null;  // no class list shipped with this model
+        }
+        if (names.isEmpty()) {
+            Log.w(TAG, assetName + " is empty - ignored");
+            return null;
+        }
+
+        byte[] groupArray = new byte[groups.size()];
+        for (int i = 0; i < groupArray.length; i++) {
+            groupArray[i] = groups.get(i);
+        }
+        return new ClassMetadata(names.toArray(new String[0]), groupArray, assetName);
+    }
+
+    private static ClassMetadata readModelMetadata(OrtSession session) {
+        try {
+            Map<String, String> custom = session.getMetadata().getCustomMetadata();
+            String namesEntry = custom != null ? custom.get("names") : null;
+            if (namesEntry == null) {
+                return null;
+            }
+
+            // Ultralytics writes a Python dict: {0: 'coin', 1: 'compass', ...}
+            TreeMap<Integer, String> byId = new TreeMap<>();
+            Matcher matcher = ULTRALYTICS_NAME.matcher(namesEntry);
+            while (matcher.find()) {
+                byId.put(Integer.parseInt(matcher.group(1)), matcher.group(2));
+            }
+            if (byId.isEmpty() || byId.lastKey() != byId.size() - 1) {
+                Log.w(TAG, "Unexpected model names metadata: " + namesEntry);
+                return null;
+            }
+            return fromNames(byId.values().toArray(new String[0]), "model metadata");
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read model metadata: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static ClassMetadata fromNames(String[] names, String source) {
+        byte[] groups = new byte[names.length];
+        for (int i = 0; i < names.length; i++) {
+            groups[i] = groupByName(names[i]);
+        }
+        return new ClassMetadata(names, groups, source);
+    }
+
+    private static byte groupByName(String name) {
+        return TREASURE_NAMES.contains(name) ? GROUP_TREASURE : GROUP_LANDMARK;
+    }
+
+    private static byte parseGroup(String group) {
+        switch (group.toLowerCase()) {
+            case "treasure":
+                return GROUP_TREASURE;
+            case "landmark":
+                return GROUP_LANDMARK;
+            default:
+                return GROUP_OTHER;
+        }
+    }
+
+    private int count(byte group) {
+        int count = 0;
+        for (byte g : groups) {
+            if (g == group) count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of classes
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param classId Class ID (0-based)
+     * @return Class name or null if invalid ID
+     */
+    public String getName(int classId) {
+        return classId >= 0 && classId < names.length ? names[classId] : null;
+    }
+
+    /**
+     * @return Copy of the class names, indexed by class ID
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * @param classId Class ID (must be valid)
+     * @return GROUP_TREASURE, GROUP_LANDMARK or GROUP_OTHER
+     */
+    public byte getGroup(int classId) {
+        return groups[classId];
+    }
+
+    public boolean isTreasure(int classId) {
+        return classId >= 0 && classId < groups.length && groups[classId] == GROUP_TREASURE;
+    }
+
+    public boolean isLandmark(int classId) {
+        return classId >= 0 && classId < groups.length && groups[classId] == GROUP_LANDMARK;
+    }
+}
@@ -0,0 +1,299 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.util.Log;
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point;
+import org.opencv.core.Point3;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Crops the item region next to a marker and rectifies it in one remap pass.
+ *
+ * The NavCam undistortion maps (initUndistortRectifyMap) are built once per image size.
+ * For a marker pose the crop corners are projected with the ideal pinhole model, and the
+ * undistortion maps are warped by the crop homography. The result is one lookup table that
+ * goes from each output pixel straight to the raw, distorted image, so lens distortion is
+ * also corrected inside the crop.
+ *
+ * Tables are cached: a new pose whose projected crop corners are all within the tolerance
+ * of a cached pose (in pixels) reuses that table instead of building a new one.
+ */
+public class CropWarpEngine {
+    private static final String TAG = "CropWarpEngine";
+
+    // Map value for crop pixels that touch the outside of the frame: the lowest CV_16SC2
+    // coordinate (convertMaps saturates to it), so remap always gives them the border value
+    private static final double INVALID_COORDINATE = -32768;
+    // Warped validity below this means some interpolation weight came from outside the frame
+    // (the smallest bilinear weight is 1/1024)
+    private static final double FULLY_VALID = 1.0 - 1e-4;
+
+    private final ArucoContext arucoContext;
+    private final Point3[] cropCorners3D;
+    private final MatOfDouble noDistortion = new MatOfDouble();
+
+    private double cornerTolerancePx = 0.5;
+    private int maxCachedMaps = 8;
+
+    // Full-frame undistortion maps (built on first use for the frame size)
+    private Size undistortSize;
+    private Mat undistortMapX;
+    private Mat undistortMapY;
+    private Mat validMask;  // CV_32F, 1 everywhere in the frame
+
+    // Most recently used first
+    private final List<CachedMap> cache = new ArrayList<>();
+    private int builtCount = 0;
+    private int reusedCount = 0;
+
+    /**
+     * @param arucoContext Provides the NavCam camera matrix and distortion coefficients
+     * @param cropCorners3D Crop corners in marker coordinates (m): top-left, top-right, bottom-right, bottom-left
+     */
+    public CropWarpEngine(ArucoContext arucoContext, Point3[] cropCorners3D) {
+        this.arucoContext = arucoContext;
+        this.cropCorners3D = cropCorners3D;
+    }
+
+    /**
+     * @return ArUco context whose intrinsics this engine uses
+     */
+    public ArucoContext getArucoContext() {
+        return arucoContext;
+    }
+
+    /**
+     * @param cornerTolerancePx Largest corner movement (px) for which a cached table is reused
+     */
+    public CropWarpEngine setCornerTolerancePx(double cornerTolerancePx) {
+        this.cornerTolerancePx = cornerTolerancePx;
+        return this;
+    }
+
+    /**
+     * @param maxCachedMaps Number of lookup tables kept (least recently used is dropped)
+     */
+    public CropWarpEngine setMaxCachedMaps(int maxCachedMaps) {
+        this.maxCachedMaps = maxCachedMaps;
+        return this;
+    }
+
+    /**
+     * Crop and rectify the region next to the marker
+     * @param image Raw NavCam image
+     * @param rvec Marker rotation vector (from estimatePoseSingleMarkers)
+     * @param tvec Marker translation vector
+     * @param outputSize Size of the rectified crop
+     * @return Rectified crop (caller releases it)
+     */
+    public synchronized Mat warp(Mat image, Mat rvec, Mat tvec, Size outputSize) {
+        Point[] corners = projectCorners(rvec, tvec);
+        CachedMap map = findCachedMap(corners, outputSize);
+        if (map == null) {
+            map = buildMap(corners, image.size(), outputSize);
+        }
+
+        Mat cropped = new Mat();
+        Imgproc.remap(image, cropped, map.map1, map.map2, Imgproc.INTER_LINEAR,
+                Core.BORDER_CONSTANT, new Scalar(0));
+        return cropped;
+    }
+
+    /**
+     * Crop the way the pipeline did before this engine: corners projected with lens distortion
+     * and the raw image warped by their homography (no undistortion). Debug parity only.
+     * @param image Raw NavCam image
+     * @param rvec Marker rotation vector
+     * @param tvec Marker translation vector
+     * @param outputSize Size of the crop
+     * @return Crop (caller releases it)
+     */
+    public Mat warpReference(Mat image, Mat rvec, Mat tvec, Size outputSize) {
+        MatOfPoint3f cornersMat = new MatOfPoint3f(cropCorners3D);
+        MatOfPoint2f projected = new MatOfPoint2f();
+        Calib3d.projectPoints(cornersMat, rvec, tvec, arucoContext.getCameraMatrix(),
+                arucoContext.getDistCoeffsDouble(), projected);
+        MatOfPoint2f dstPointsMat = new MatOfPoint2f(outputCorners(outputSize));
+        Mat homography = Imgproc.getPerspectiveTransform(projected, dstPointsMat);
+
+        Mat cropped = new Mat();
+        Imgproc.warpPerspective(image, cropped, homography, outputSize);
+
+        cornersMat.release();
+        projected.release();
+        dstPointsMat.release();
+        homography.release();
+        return cropped;
+    }
+
+    private static Point[] outputCorners(Size outputSize) {
+        return new Point[]{
+                new Point(0, 0),                                           // Top-left
+                new Point(outputSize.width - 1, 0),                        // Top-right
+                new Point(outputSize.width - 1, outputSize.height - 1),    // Bottom-right
+                new Point(0, outputSize.height - 1)                        // Bottom-left
+        };
+    }
+
+    /**
+     * Project the crop corners without lens distortion (undistorted pixel coordinates)
+     */
+    private Point[] projectCorners(Mat rvec, Mat tvec) {
+        MatOfPoint3f cornersMat = new MatOfPoint3f(cropCorners3D);
+        MatOfPoint2f projected = new MatOfPoint2f();
+        Calib3d.projectPoints(cornersMat, rvec, tvec, arucoContext.getCameraMatrix(), noDistortion, projected);
+        Point[] corners = projected.toArray();
+        cornersMat.release();
+        projected.release();
+        return corners;
+    }
+
+    private CachedMap findCachedMap(Point[] corners, Size outputSize) {
+        Iterator<CachedMap> iterator = cache.iterator();
+        while (iterator.hasNext()) {
+            CachedMap candidate = iterator.next();
+            if (candidate.matches(corners, outputSize, cornerTolerancePx)) {
+                iterator.remove();
+                cache.add(0, candidate);
+                reusedCount++;
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Build the combined undistort + crop table: map(x, y) = undistortMap(H^-1 (x, y))
+     */
+    private CachedMap buildMap(Point[] corners, Size imageSize, Size outputSize) {
+        long startTime = System.currentTimeMillis();
+        ensureUndistortMaps(imageSize);
+
+        MatOfPoint2f srcPointsMat = new MatOfPoint2f(corners);
+        MatOfPoint2f dstPointsMat = new MatOfPoint2f(outputCorners(outputSize));
+        Mat homography = Imgproc.getPerspectiveTransform(srcPointsMat, dstPointsMat);
+
+        // Sample the undistortion maps through the homography. An entry interpolated partly
+        // from outside the frame is a blend with the border value, which can still be a valid
+        // pixel far from the true one, so the frame mask is warped the same way and every entry
+        // that is not fully inside gets INVALID_COORDINATE (border value in remap, like the old
+        // warpPerspective crop).
+        Mat mapX = new Mat();
+        Mat mapY = new Mat();
+        Mat validity = new Mat();
+        Mat partlyOutside = new Mat();
+        Imgproc.warpPerspective(undistortMapX, mapX, homography, outputSize, Imgproc.INTER_LINEAR,
+                Core.BORDER_CONSTANT, new Scalar(INVALID_COORDINATE));
+        Imgproc.warpPerspective(undistortMapY, mapY, homography, outputSize, Imgproc.INTER_LINEAR,
+                Core.BORDER_CONSTANT, new Scalar(INVALID_COORDINATE));
+        Imgproc.warpPerspective(validMask, validity, homography, outputSize, Imgproc.INTER_LINEAR,
+                Core.BORDER_CONSTANT, new Scalar(0));
+        Core.compare(validity, new Scalar(FULLY_VALID), partlyOutside, Core.CMP_LT);
+        mapX.setTo(new Scalar(INVALID_COORDINATE), partlyOutside);
+        mapY.setTo(new Scalar(INVALID_COORDINATE), partlyOutside);
+
+        // Fixed-point maps make the per-image remap cheaper
+        CachedMap map = new CachedMap(corners, outputSize, new Mat(), new Mat());
+        Imgproc.convertMaps(mapX, mapY, map.map1, map.map2, CvType.CV_16SC2, false);
+
+        srcPointsMat.release();
+        dstPointsMat.release();
+        homography.release();
+        mapX.release();
+        mapY.release();
+        validity.release();
+        partlyOutside.release();
+
+        cache.add(0, map);
+        while (cache.size() > maxCachedMaps) {
+            cache.remove(cache.size() - 1).release();
+        }
+        builtCount++;
+
+        Log.i(TAG, String.format("Built %.0fx%.0f crop map in %d ms (built %d, reused %d)",
+                outputSize.width, outputSize.height, System.currentTimeMillis() - startTime, builtCount, reusedCount));
+        return map;
+    }
+
+    private void ensureUndistortMaps(Size imageSize) {
+        if (undistortMapX != null && undistortSize.width == imageSize.width && undistortSize.height == imageSize.height) {
+            return;
+        }
+        if (undistortMapX != null) {
+            undistortMapX.release();
+            undistortMapY.release();
+            validMask.release();
+        }
+
+        undistortSize = imageSize;
+        validMask = Mat.ones(imageSize, CvType.CV_32FC1);
+        undistortMapX = new Mat();
+        undistortMapY = new Mat();
+        Mat cameraMatrix = arucoContext.getCameraMatrix();
+        Calib3d.initUndistortRectifyMap(cameraMatrix, arucoContext.getDistCoeffs(), new Mat(),
+                cameraMatrix, imageSize, CvType.CV_32FC1, undistortMapX, undistortMapY);
+    }
+
+    /**
+     * Release the cached tables and undistortion maps at the end of the mission
+     */
+    public synchronized void release() {
+        for (CachedMap map : cache) {
+            map.release();
+        }
+        cache.clear();
+        if (undistortMapX != null) {
+            undistortMapX.release();
+            undistortMapY.release();
+            validMask.release();
+            undistortMapX = null;
+            undistortMapY = null;
+        }
+        noDistortion.release();
+        Log.i(TAG, String.format("Crop maps built: %d, reused: %d", builtCount, reusedCount));
+    }
+
+    private static final class CachedMap {
+        final Point[] corners;
+        final Size outputSize;
+        final Mat map1;
+        final Mat map2;
+
+        CachedMap(Point[] corners, Size outputSize, Mat map1, Mat map2) {
+            this.corners = corners;
+            this.outputSize = outputSize;
+            this.map1 = map1;
+            this.map2 = map2;
+        }
+
+        boolean matches(Point[] otherCorners, Size otherSize, double tolerancePx) {
+            if (outputSize.width != otherSize.width || outputSize.height != otherSize.height
+                    || corners.length != otherCorners.length) {
+                return false;
+            }
+            for (int i = 0; i < corners.length; i++) {
+                if (Math.hypot(corners[i].x - otherCorners[i].x, corners[i].y - otherCorners[i].y) > tolerancePx) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void release() {
+            map1.release();
+            map2.release();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.util.Log;
+import jp.jaxa.iss.kibo.rpc.api.KiboRpcApi;
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+
+/**
+ * Saves debug images on a background thread so PNG encoding stays off the mission path.
+ * Images are cloned into a bounded queue; when it is full the oldest pending image is
+ * dropped. A per-mission budget caps the total number of saved images: an image takes
+ * its share of the budget when it is queued, and gives it back only if it is dropped
+ * or fails to save.
+ *
+ * Modes:
+ *     OFF        - nothing is saved
+ *     FINAL_ONLY - only images that are fed to YOLO (e.g. area_N_yolo_clahe_320x320.png)
+ *     FULL       - every intermediate image (raw, marker frame, crops, Otsu binary, ...)
+ * Pipeline debug artifacts are passed in with publish(), which only computes the ones the mode saves.
+ */
+public class DebugImageSink {
+    private static final String TAG = "DebugImageSink";
+
+    public enum Mode {
+        OFF,
+        FINAL_ONLY,
+        FULL
+    }
+
+    private final KiboRpcApi api;
+    private final Mode mode;
+    private final int queueCapacity;
+    private final int missionBudget;
+
+    // Pending images and counters (guarded by this)
+    private final ArrayDeque<PendingImage> queue = new ArrayDeque<>();
+    private int reservedCount = 0;  // saved + queued + being written
+    private int savedCount = 0;
+    private int droppedCount = 0;
+    private boolean closed = false;
+    private Thread writerThread;
+
+    /**
+     * @param api Kibo RPC API used for saveMatImage
+     * @param mode What to save
+     */
+    public DebugImageSink(KiboRpcApi api, Mode mode) {
+        this(api, mode, 8, 50);
+    }
+
+    /**
+     * @param api Kibo RPC API used for saveMatImage
+     * @param mode What to save
+     * @param queueCapacity Max images waiting to be written (oldest is dropped beyond this)
+     * @param missionBudget Max images saved during the mission
+     */
+    public DebugImageSink(KiboRpcApi api, Mode mode, int queueCapacity, int missionBudget) {
+        this.api = api;
+        this.mode = mode;
+        this.queueCapacity = queueCapacity;
+        this.missionBudget = missionBudget;
+        Log.i(TAG, String.format("Debug images: %s (queue %d, budget %d)", mode, queueCapacity, missionBudget));
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if intermediate images are saved, i.e. debug-only images are worth computing
+     */
+    public boolean wantsIntermediate() {
+        return mode == Mode.FULL;
+    }
+
+    /**
+     * Queue an image that is fed to the detector (saved in FINAL_ONLY and FULL modes)
+     * @param image Image to save (cloned; the caller keeps ownership)
+     * @param filename File name passed to api.saveMatImage
+     */
+    public void saveFinal(Mat image, String filename) {
+        if (mode != Mode.OFF && image != null && reserve(filename)) {
+            enqueue(image.clone(), filename);
+        }
+    }
+
+    /**
+     * Queue an intermediate debug image (saved in FULL mode only)
+     * @param image Image to save (cloned; the caller keeps ownership)
+     * @param filename File name passed to api.saveMatImage
+     */
+    public void saveIntermediate(Mat image, String filename) {
+        if (mode == Mode.FULL && image != null && reserve(filename)) {
+            enqueue(image.clone(), filename);
+        }
+    }
+
+    /**
+     * Materialize and queue the debug artifacts of a pipeline result that this mode wants
+     * (final images in FINAL_ONLY, everything plus min/max stats in FULL). Nothing is
+     * computed in OFF mode.
+     * @param result Pipeline result (its artifacts are cached in it; release it afterwards)
+     */
+    public void publish(VisionPipelineResult result) {
+        if (mode == Mode.OFF) {
+            return;
+        }
+
+        for (String filename : result.getDebugImageNames()) {
+            // Reserve first so images over the budget are never computed
+            if ((mode == Mode.FULL || result.isFinalImage(filename)) && reserve(filename)) {
+                Mat image = result.takeDebugImage(filename);
+                if (image != null) {
+                    enqueue(image, filename);
+                } else {
+                    unreserve();
+                }
+            }
+        }
+
+        if (mode == Mode.FULL) {
+            for (String stat : result.getDebugStats()) {
+                Log.i(TAG, "Area " + result.getAreaId() + ": " + stat);
+            }
+        }
+    }
+
+    /**
+     * Take one image of the mission budget
+     * @return false if the budget is used up or the sink is closed
+     */
+    private synchronized boolean reserve(String filename) {
+        if (closed) {
+            return false;
+        }
+        if (reservedCount >= missionBudget) {
+            droppedCount++;
+            Log.w(TAG, "Debug image budget used up - " + filename + " not saved");
+            return false;
+        }
+        reservedCount++;
+        return true;
+    }
+
+    private synchronized void unreserve() {
+        reservedCount--;
+    }
+
+    /**
+     * Queue an image whose budget is already reserved
+     * @param image Image to save (the sink takes ownership)
+     * @param filename File name passed to api.saveMatImage
+     */
+    private synchronized void enqueue(Mat image, String filename) {
+        if (closed) {
+            image.release();
+            reservedCount--;
+            return;
+        }
+
+        if (queue.size() >= queueCapacity) {
+            PendingImage oldest = queue.poll();
+            oldest.image.release();
+            reservedCount--;
+            droppedCount++;
+            Log.w(TAG, "Debug image queue full - dropped " + oldest.filename);
+        }
+
+        queue.add(new PendingImage(image, filename));
+        startWriterIfNeeded();
+        notifyAll();
+    }
+
+    private void startWriterIfNeeded() {
+        if (writerThread != null) {
+            return;
+        }
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "DebugImageWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            PendingImage pending;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (queue.isEmpty()) {
+                    return;
+                }
+                pending = queue.poll();
+            }
+
+            try {
+                api.saveMatImage(pending.image, pending.filename);
+                synchronized (this) {
+                    savedCount++;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to save " + pending.filename + ": " + e.getMessage());
+                unreserve();
+            } finally {
+                pending.image.release();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting images and wait for the queued ones to be written
+     * @param timeoutMs Longest time to wait for the writer
+     */
+    public void close(long timeoutMs) {
+        Thread writer;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+            writer = writerThread;
+        }
+
+        if (writer != null) {
+            try {
+                writer.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            for (PendingImage pending : queue) {
+                pending.image.release();
+            }
+            droppedCount += queue.size();
+            reservedCount -= queue.size();
+            queue.clear();
+            Log.i(TAG, String.format("Debug images saved: %d, dropped: %d", savedCount, droppedCount));
+        }
+    }
+
+    private static final class PendingImage {
+        final Mat image;
+        final String filename;
+
+        PendingImage(Mat image, String filename) {
+            this.image = image;
+            this.filename = filename;
+        }
+    }
+}
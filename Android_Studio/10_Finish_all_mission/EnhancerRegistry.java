@@ -0,0 +1,70 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Creates contrast enhancers once per parameter set and hands out the shared instance.
+ * Replaces creating and configuring a new CLAHE for every image.
+ */
+public class EnhancerRegistry {
+    private static final String TAG = "EnhancerRegistry";
+
+    private final Map<String, ImageEnhancer> enhancers = new HashMap<>();
+
+    /**
+     * @param clipLimit CLAHE clip limit
+     * @param tilesGridSize Tiles per side (grid is tilesGridSize x tilesGridSize)
+     * @return Shared CLAHE enhancer for these parameters
+     */
+    public ImageEnhancer clahe(final double clipLimit, final int tilesGridSize) {
+        return get("clahe:" + clipLimit + ":" + tilesGridSize, new Supplier<ImageEnhancer>() {
+            @Override
+            public ImageEnhancer get() {
+                return new ClaheEnhancer(clipLimit, tilesGridSize);
+            }
+        });
+    }
+
+    /**
+     * CLAHE used for area and target crops: clip limit 2.0, grid scaled with the image size
+     * (at least 8, one tile per 40 px of the shorter side)
+     * @param width Image width
+     * @param height Image height
+     */
+    public ImageEnhancer claheForSize(double width, double height) {
+        int gridSize = (int) Math.max(8, Math.min(width, height) / 40);
+        return clahe(2.0, gridSize);
+    }
+
+    /**
+     * @return Shared global histogram equalizer
+     */
+    public ImageEnhancer equalizeHist() {
+        return get("equalize_hist", new Supplier<ImageEnhancer>() {
+            @Override
+            public ImageEnhancer get() {
+                return new EqualizeHistEnhancer();
+            }
+        });
+    }
+
+    /**
+     * Look up an enhancer, creating it on first use. Also the extension point for
+     * other contrast operators.
+     * @param key Unique key including all parameters
+     * @param factory Creates the enhancer if the key is new
+     */
+    public synchronized ImageEnhancer get(String key, Supplier<ImageEnhancer> factory) {
+        ImageEnhancer enhancer = enhancers.get(key);
+        if (enhancer == null) {
+            enhancer = factory.get();
+            enhancers.put(key, enhancer);
+            Log.i(TAG, "Created " + enhancer.getName());
+        }
+        return enhancer;
+    }
+}
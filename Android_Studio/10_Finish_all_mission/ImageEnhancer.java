@@ -0,0 +1,23 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.Mat;
+
+/**
+ * Contrast enhancement applied to the cropped gray image before YOLO.
+ * Instances come from EnhancerRegistry, which creates each parameter set once.
+ */
+public interface ImageEnhancer {
+
+    /**
+     * Enhance src into dst. src and dst may be the same Mat (in-place).
+     * Implementations must be safe to call from the vision worker and the mission thread.
+     * @param src Input image (1 channel, CV_8U)
+     * @param dst Output image
+     */
+    void apply(Mat src, Mat dst);
+
+    /**
+     * @return Short operator name with its parameters, for logs
+     */
+    String getName();
+}
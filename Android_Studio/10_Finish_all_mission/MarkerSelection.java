@@ -0,0 +1,78 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ArUco marker picked for cropping (the one closest to the image center).
+ * Corners and ID are clones, independent of the pooled detection buffers; the holder
+ * owns them until release() or until they are handed on (e.g. retained by a pipeline result).
+ */
+public final class MarkerSelection {
+    private final List<Mat> corners;
+    private final Mat ids;
+    private final int selectedIndex;
+    private final double centerDistance;
+
+    /**
+     * @param corners Cloned corners of the selected marker (one 1x4 CV_32FC2 Mat)
+     * @param ids Cloned ID of the selected marker (1x1 CV_32S)
+     * @param selectedIndex Index of the marker in the detection output
+     * @param centerDistance Distance of the marker center from the image center (px)
+     */
+    public MarkerSelection(List<Mat> corners, Mat ids, int selectedIndex, double centerDistance) {
+        this.corners = Collections.unmodifiableList(new ArrayList<>(corners));
+        this.ids = ids;
+        this.selectedIndex = selectedIndex;
+        this.centerDistance = centerDistance;
+    }
+
+    /**
+     * @return Selection without a marker
+     */
+    public static MarkerSelection none() {
+        return new MarkerSelection(new ArrayList<Mat>(), new Mat(), -1, Double.NaN);
+    }
+
+    public boolean isEmpty() {
+        return corners.isEmpty();
+    }
+
+    /**
+     * @return Corners in the list form estimatePoseSingleMarkers and drawDetectedMarkers take (read-only)
+     */
+    public List<Mat> getCorners() {
+        return corners;
+    }
+
+    public Mat getIds() {
+        return ids;
+    }
+
+    /**
+     * @return Index of the marker in the detection output, or -1 if none
+     */
+    public int getSelectedIndex() {
+        return selectedIndex;
+    }
+
+    /**
+     * @return Distance from the image center (px); 0 if it was the only marker, NaN if none
+     */
+    public double getCenterDistance() {
+        return centerDistance;
+    }
+
+    /**
+     * Release the cloned corners and ID
+     */
+    public void release() {
+        for (Mat corner : corners) {
+            corner.release();
+        }
+        ids.release();
+    }
+}
@@ -0,0 +1,262 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Extracts model assets to getFilesDir() only when needed.
+ * Each extracted file has a sidecar "<name>.meta" holding "<size> <sha256>" of its content.
+ * A copy is skipped when the file size matches the sidecar and the sidecar hash matches the
+ * asset's hash, so a retrained model of the same size is still extracted again.
+ * The asset hash is read from "<name>.sha256" if the export script shipped one next to the
+ * model (cheap); otherwise the asset is hashed (read-only).
+ */
+public class ModelCache {
+    private static final String TAG = "ModelCache";
+    private static final String SIDECAR_SUFFIX = ".meta";
+    private static final String HASH_ASSET_SUFFIX = ".sha256";
+    private static final int COPY_BUFFER_SIZE = 1 << 20;  // 1 MB
+
+    private final Context context;
+
+    public ModelCache(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Get the extracted model file, copying it from assets only if missing or stale
+     * @param assetName Asset file name (e.g. "yolo_v8n_400.onnx")
+     * @return File in getFilesDir() with the asset content
+     */
+    public File getModelFile(String assetName) throws IOException {
+        File modelFile = new File(context.getFilesDir(), assetName);
+        File sidecarFile = new File(context.getFilesDir(), assetName + SIDECAR_SUFFIX);
+
+        long startTime = System.currentTimeMillis();
+        if (isUpToDate(assetName, modelFile, sidecarFile)) {
+            Log.i(TAG, String.format("%s already extracted, copy skipped (%d ms)",
+                    assetName, System.currentTimeMillis() - startTime));
+            return modelFile;
+        }
+
+        copyAsset(assetName, modelFile, sidecarFile);
+        Log.i(TAG, String.format("%s extracted (%d bytes, %d ms)",
+                assetName, modelFile.length(), System.currentTimeMillis() - startTime));
+        return modelFile;
+    }
+
+    /**
+     * @param assetName Asset file name (extracted with getModelFile first)
+     * @return sha256 of the extracted model recorded in its sidecar
+     */
+    public String getContentHash(String assetName) throws IOException {
+        return readSidecar(new File(context.getFilesDir(), assetName + SIDECAR_SUFFIX))[1];
+    }
+
+    /**
+     * @param data Content to hash
+     * @return sha256 of the content as lowercase hex
+     */
+    public static String sha256(byte[] data) throws IOException {
+        MessageDigest digest = newDigest();
+        digest.update(data);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Read the whole asset into memory, for env.createSession(byte[]) without any file copy
+     * @param assetName Asset file name
+     * @return Asset content
+     */
+    public byte[] readAsset(String assetName) throws IOException {
+        long assetLength = getAssetLength(assetName);
+        InputStream inputStream = context.getAssets().open(assetName);
+        try {
+            if (assetLength >= 0) {
+                byte[] data = new byte[(int) assetLength];
+                int offset = 0;
+                int length;
+                while (offset < data.length && (length = inputStream.read(data, offset, data.length - offset)) > 0) {
+                    offset += length;
+                }
+                if (offset == data.length) {
+                    return data;
+                }
+                throw new IOException("Unexpected end of asset " + assetName);
+            }
+
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(COPY_BUFFER_SIZE);
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private boolean isUpToDate(String assetName, File modelFile, File sidecarFile) {
+        if (!modelFile.exists() || !sidecarFile.exists()) {
+            return false;
+        }
+
+        try {
+            String[] sidecar = readSidecar(sidecarFile);
+            long recordedSize = Long.parseLong(sidecar[0]);
+            String recordedHash = sidecar[1];
+
+            if (recordedSize != modelFile.length()) {
+                return false;
+            }
+
+            // Size mismatch is enough to know the asset changed (uncompressed assets only)
+            long assetLength = getAssetLength(assetName);
+            if (assetLength >= 0 && assetLength != recordedSize) {
+                return false;
+            }
+
+            return recordedHash.equals(getAssetHash(assetName));
+        } catch (Exception e) {
+            Log.w(TAG, "Invalid model cache sidecar for " + assetName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void copyAsset(String assetName, File modelFile, File sidecarFile) throws IOException {
+        MessageDigest digest = newDigest();
+        File tempFile = new File(modelFile.getParentFile(), modelFile.getName() + ".tmp");
+
+        InputStream inputStream = new DigestInputStream(
+                new BufferedInputStream(context.getAssets().open(assetName), COPY_BUFFER_SIZE), digest);
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            ReadableByteChannel source = Channels.newChannel(inputStream);
+            FileChannel target = outputStream.getChannel();
+            long position = 0;
+            long transferred;
+            while ((transferred = target.transferFrom(source, position, COPY_BUFFER_SIZE)) > 0) {
+                position += transferred;
+            }
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+            inputStream.close();
+        }
+
+        if (modelFile.exists() && !modelFile.delete()) {
+            throw new IOException("Could not replace " + modelFile.getName());
+        }
+        if (!tempFile.renameTo(modelFile)) {
+            throw new IOException("Could not rename " + tempFile.getName());
+        }
+
+        writeSidecar(sidecarFile, modelFile.length(), toHex(digest.digest()));
+    }
+
+    /**
+     * @return Asset length, or -1 if the asset is compressed in the APK
+     */
+    private long getAssetLength(String assetName) {
+        try {
+            AssetFileDescriptor descriptor = context.getAssets().openFd(assetName);
+            long length = descriptor.getLength();
+            descriptor.close();
+            return length;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return sha256 of the asset: from the build-time hash asset if present, else computed
+     */
+    private String getAssetHash(String assetName) throws IOException {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    context.getAssets().open(assetName + HASH_ASSET_SUFFIX), "UTF-8"));
+            try {
+                String line = reader.readLine();
+                if (line != null && !line.trim().isEmpty()) {
+                    // sha256sum format: "<hash>  <file name>"
+                    return line.trim().split("\\s+")[0].toLowerCase();
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException e) {
+            // No build-time hash shipped with this model
+        }
+
+        long startTime = System.currentTimeMillis();
+        String hash = hashAsset(assetName);
+        Log.i(TAG, String.format("%s hashed in %d ms (no %s asset)",
+                assetName, System.currentTimeMillis() - startTime, HASH_ASSET_SUFFIX));
+        return hash;
+    }
+
+    private String hashAsset(String assetName) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream inputStream = context.getAssets().open(assetName);
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String[] readSidecar(File sidecarFile) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(sidecarFile));
+        try {
+            String line = reader.readLine();
+            String[] parts = line != null ? line.trim().split(" ") : new String[0];
+            if (parts.length != 2) {
+                throw new IOException("Malformed sidecar");
+            }
+            return parts;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void writeSidecar(File sidecarFile, long size, String hash) throws IOException {
+        FileWriter writer = new FileWriter(sidecarFile);
+        try {
+            writer.write(size + " " + hash + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,26 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.Mat;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Preprocessing backend for YOLODetectionService.
+ * Turns an OpenCV image (gray, BGR or BGRA) into the normalized RGB NCHW input tensor.
+ */
+public interface Preprocessor {
+
+    /**
+     * Write 3 x inputSize x inputSize floats (RGB planes, values in [0, 1]) into target,
+     * starting at its current position. Implementations may reuse internal buffers and
+     * are not thread-safe.
+     * @param image Input image (1, 3 or 4 channels, CV_8U)
+     * @param target Buffer receiving the NCHW tensor data
+     */
+    void preprocess(Mat image, FloatBuffer target);
+
+    /**
+     * @return Short backend name for logs
+     */
+    String getName();
+}
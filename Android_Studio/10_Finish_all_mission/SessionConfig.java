@@ -0,0 +1,193 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import ai.onnxruntime.*;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * ONNX Runtime session settings for YOLODetectionService.
+ * Defaults are the settings the mission has always run with (basic graph optimization,
+ * ONNX Runtime's own thread counts, arena and memory pattern on) plus an optimized-model
+ * cache next to the copied asset. Other settings should only become the default once
+ * YOLOBenchmark.benchmarkSessionConfigs has shown them faster on the target device.
+ *
+ * The cached graph is keyed by the model's sha256, so a changed model never loads an
+ * old optimized graph.
+ */
+public class SessionConfig {
+    private static final String TAG = "SessionConfig";
+
+    private static final String OPTIMIZED_SUFFIX = ".opt.onnx";
+    private static final int HASH_PREFIX_LENGTH = 16;
+
+    private OrtSession.SessionOptions.OptLevel optLevel = OrtSession.SessionOptions.OptLevel.BASIC_OPT;
+    private int intraOpThreads = 0;
+    private int interOpThreads = 0;
+    private OrtSession.SessionOptions.ExecutionMode executionMode = OrtSession.SessionOptions.ExecutionMode.SEQUENTIAL;
+    private boolean memoryPattern = true;
+    private boolean cpuArena = true;
+    private boolean cacheOptimizedModel = true;
+
+    public SessionConfig setOptLevel(OrtSession.SessionOptions.OptLevel optLevel) {
+        this.optLevel = optLevel;
+        return this;
+    }
+
+    /**
+     * @param intraOpThreads Threads used inside one operator (0 = ONNX Runtime default)
+     */
+    public SessionConfig setIntraOpThreads(int intraOpThreads) {
+        this.intraOpThreads = intraOpThreads;
+        return this;
+    }
+
+    /**
+     * @param interOpThreads Threads used across operators in PARALLEL mode (0 = ONNX Runtime default)
+     */
+    public SessionConfig setInterOpThreads(int interOpThreads) {
+        this.interOpThreads = interOpThreads;
+        return this;
+    }
+
+    public SessionConfig setExecutionMode(OrtSession.SessionOptions.ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    public SessionConfig setMemoryPattern(boolean memoryPattern) {
+        this.memoryPattern = memoryPattern;
+        return this;
+    }
+
+    public SessionConfig setCpuArena(boolean cpuArena) {
+        this.cpuArena = cpuArena;
+        return this;
+    }
+
+    /**
+     * @param cacheOptimizedModel Save the optimized graph on first launch and load it on later runs
+     */
+    public SessionConfig setCacheOptimizedModel(boolean cacheOptimizedModel) {
+        this.cacheOptimizedModel = cacheOptimizedModel;
+        return this;
+    }
+
+    /**
+     * Create a session for the model file with these settings.
+     * With caching enabled, the first call saves the optimized graph next to the model
+     * and later calls load that file with graph optimization turned off.
+     * @param env ONNX Runtime environment
+     * @param modelFile Model file copied from assets
+     * @param modelHash sha256 of the model (ModelCache.getContentHash), or null to skip the cache
+     * @return New session
+     */
+    public OrtSession createSession(OrtEnvironment env, File modelFile, String modelHash) throws OrtException {
+        return createSession(env, modelFile.getAbsolutePath(), null,
+                modelFile.getParentFile(), modelFile.getName(), modelHash);
+    }
+
+    /**
+     * Create a session straight from model bytes (no model file needed)
+     * @param env ONNX Runtime environment
+     * @param modelBytes Model content read from assets
+     * @param cacheDir Directory for the optimized-model cache
+     * @param modelName Model name used for the cache file name
+     * @return New session
+     */
+    public OrtSession createSession(OrtEnvironment env, byte[] modelBytes,
+                                    File cacheDir, String modelName) throws OrtException {
+        String modelHash = null;
+        if (cacheOptimizedModel) {
+            try {
+                modelHash = ModelCache.sha256(modelBytes);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not hash model - optimized model cache disabled: " + e.getMessage());
+            }
+        }
+        return createSession(env, null, modelBytes, cacheDir, modelName, modelHash);
+    }
+
+    private OrtSession createSession(OrtEnvironment env, String modelPath, byte[] modelBytes,
+                                     File cacheDir, String modelName, String modelHash) throws OrtException {
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+        try {
+            options.setIntraOpNumThreads(intraOpThreads);
+            options.setInterOpNumThreads(interOpThreads);
+            options.setExecutionMode(executionMode);
+            options.setMemoryPatternOptimization(memoryPattern);
+            options.setCPUArenaAllocator(cpuArena);
+
+            // Nothing to cache without optimization, or without a hash to key the file by
+            if (cacheOptimizedModel && optLevel != OrtSession.SessionOptions.OptLevel.NO_OPT && modelHash != null) {
+                File optimizedFile = getOptimizedModelFile(cacheDir, modelName, modelHash);
+                deleteStaleOptimizedModels(cacheDir, modelName, optimizedFile);
+                if (optimizedFile.exists()) {
+                    Log.i(TAG, "Loading cached optimized model " + optimizedFile.getName());
+                    options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+                    try {
+                        return env.createSession(optimizedFile.getAbsolutePath(), options);
+                    } catch (OrtException e) {
+                        // ORT writes the file in place, so a kill during the first save leaves it
+                        // truncated; rebuild it from the source model instead of failing every start
+                        Log.w(TAG, "Cached optimized model unreadable, rebuilding: " + e.getMessage());
+                        if (!optimizedFile.delete()) {
+                            Log.w(TAG, "Could not delete " + optimizedFile.getName());
+                        }
+                    }
+                }
+                options.setOptimizedModelFilePath(optimizedFile.getAbsolutePath());
+                Log.i(TAG, "Optimized model will be saved to " + optimizedFile.getName());
+            }
+
+            options.setOptimizationLevel(optLevel);
+            if (modelBytes != null) {
+                return env.createSession(modelBytes, options);
+            }
+            return env.createSession(modelPath, options);
+        } finally {
+            options.close();
+        }
+    }
+
+    /**
+     * Cache file name is keyed by model content hash and optimization level, e.g.
+     * yolo_v8n_400.onnx -> yolo_v8n_400.3f2a9c0d41b7e655.BASIC_OPT.opt.onnx
+     */
+    private File getOptimizedModelFile(File cacheDir, String modelName, String modelHash) {
+        String hashPrefix = modelHash.substring(0, Math.min(HASH_PREFIX_LENGTH, modelHash.length()));
+        return new File(cacheDir, getBaseName(modelName) + "." + hashPrefix + "." + optLevel.name() + OPTIMIZED_SUFFIX);
+    }
+
+    /**
+     * Delete optimized graphs of older versions of this model (same level, other hash)
+     */
+    private void deleteStaleOptimizedModels(File cacheDir, String modelName, File currentFile) {
+        String prefix = getBaseName(modelName) + ".";
+        String suffix = "." + optLevel.name() + OPTIMIZED_SUFFIX;
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            // The middle part must be a bare hash, so yolo_v8n_400_fp16.* is not matched for yolo_v8n_400
+            if (name.startsWith(prefix) && name.endsWith(suffix) && !name.equals(currentFile.getName())
+                    && name.substring(prefix.length(), name.length() - suffix.length()).indexOf('.') < 0) {
+                Log.i(TAG, "Deleting stale optimized model " + name + (file.delete() ? "" : " failed"));
+            }
+        }
+    }
+
+    private static String getBaseName(String modelName) {
+        int dot = modelName.lastIndexOf('.');
+        return dot > 0 ? modelName.substring(0, dot) : modelName;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, intra=%d, inter=%d, %s, memPattern=%b, arena=%b, cache=%b",
+                optLevel, intraOpThreads, interOpThreads, executionMode, memoryPattern, cpuArena, cacheOptimizedModel);
+    }
+}
@@ -0,0 +1,163 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.util.Log;
+import gov.nasa.arc.astrobee.Kinematics;
+import gov.nasa.arc.astrobee.types.Vec3d;
+import jp.jaxa.iss.kibo.rpc.api.KiboRpcApi;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Decides when the robot has settled after a move, instead of sleeping a fixed time.
+ * The robot counts as stable once the reported linear velocity and angular rate are
+ * below their limits and two successive NavCam frames are nearly identical.
+ * A ceiling bounds the wait, so the latest frame is returned even if it never settles.
+ */
+public class SettleDetector {
+    private static final String TAG = "SettleDetector";
+    private static final double DIFF_SCALE = 0.125;  // frame difference is computed at 1/8 resolution
+
+    private final KiboRpcApi api;
+
+    private double maxLinearVelocity = 0.01;   // m/s
+    private double maxAngularVelocity = 0.02;  // rad/s
+    private double maxFrameDifference = 2.0;   // mean absolute gray level difference (0-255)
+    private int pollIntervalMs = 50;
+    private int maxWaitMs = 500;
+
+    public SettleDetector(KiboRpcApi api) {
+        this.api = api;
+    }
+
+    /**
+     * @param maxLinearVelocity Largest linear speed (m/s) that still counts as stable
+     */
+    public SettleDetector setMaxLinearVelocity(double maxLinearVelocity) {
+        this.maxLinearVelocity = maxLinearVelocity;
+        return this;
+    }
+
+    /**
+     * @param maxAngularVelocity Largest angular rate (rad/s) that still counts as stable
+     */
+    public SettleDetector setMaxAngularVelocity(double maxAngularVelocity) {
+        this.maxAngularVelocity = maxAngularVelocity;
+        return this;
+    }
+
+    /**
+     * @param maxFrameDifference Largest mean gray level difference between successive frames
+     */
+    public SettleDetector setMaxFrameDifference(double maxFrameDifference) {
+        this.maxFrameDifference = maxFrameDifference;
+        return this;
+    }
+
+    public SettleDetector setPollIntervalMs(int pollIntervalMs) {
+        this.pollIntervalMs = pollIntervalMs;
+        return this;
+    }
+
+    /**
+     * @param maxWaitMs Ceiling on the settle wait (the old fixed delay was 500 ms)
+     */
+    public SettleDetector setMaxWaitMs(int maxWaitMs) {
+        this.maxWaitMs = maxWaitMs;
+        return this;
+    }
+
+    /**
+     * Capture NavCam frames until the robot is stable or the ceiling is reached
+     * @return Latest NavCam frame (caller releases it), or null if the camera returned nothing
+     */
+    public Mat waitForStableFrame() {
+        long startTime = System.currentTimeMillis();
+        Mat frame = null;
+        Mat previousSmall = null;
+        int frames = 0;
+
+        try {
+            while (true) {
+                Mat newFrame = api.getMatNavCam();
+                if (newFrame == null) {
+                    Log.w(TAG, "NavCam returned no image");
+                } else {
+                    if (frame != null) {
+                        frame.release();
+                    }
+                    frame = newFrame;
+                    frames++;
+
+                    Mat small = downscale(frame);
+                    double frameDifference = previousSmall != null
+                            ? meanAbsDifference(previousSmall, small) : Double.MAX_VALUE;
+                    if (previousSmall != null) {
+                        previousSmall.release();
+                    }
+                    previousSmall = small;
+
+                    if (frameDifference <= maxFrameDifference && isKinematicsStill()) {
+                        Log.i(TAG, String.format("Stable after %d ms (%d frames, diff %.2f)",
+                                System.currentTimeMillis() - startTime, frames, frameDifference));
+                        return frame;
+                    }
+                }
+
+                if (System.currentTimeMillis() - startTime >= maxWaitMs) {
+                    Log.w(TAG, String.format("Not stable after %d ms ceiling (%d frames) - using latest frame",
+                            maxWaitMs, frames));
+                    return frame;
+                }
+
+                Thread.sleep(pollIntervalMs);
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Settle wait interrupted");
+            Thread.currentThread().interrupt();
+            return frame;
+        } finally {
+            if (previousSmall != null) {
+                previousSmall.release();
+            }
+        }
+    }
+
+    /**
+     * @return true if the reported velocities are below the limits (or kinematics are unavailable)
+     */
+    private boolean isKinematicsStill() {
+        Kinematics kinematics = api.getRobotKinematics();
+        if (kinematics == null) {
+            return true;  // fall back to the frame difference alone
+        }
+
+        double linear = norm(kinematics.getLinearVelocity());
+        double angular = norm(kinematics.getAngularVelocity());
+        return linear <= maxLinearVelocity && angular <= maxAngularVelocity;
+    }
+
+    private static double norm(Vec3d vector) {
+        if (vector == null) {
+            return 0.0;
+        }
+        return Math.sqrt(vector.getX() * vector.getX()
+                + vector.getY() * vector.getY()
+                + vector.getZ() * vector.getZ());
+    }
+
+    private static Mat downscale(Mat frame) {
+        Mat small = new Mat();
+        Imgproc.resize(frame, small, new Size(), DIFF_SCALE, DIFF_SCALE, Imgproc.INTER_AREA);
+        return small;
+    }
+
+    private static double meanAbsDifference(Mat a, Mat b) {
+        Mat difference = new Mat();
+        Core.absdiff(a, b, difference);
+        double mean = Core.mean(difference).val[0];
+        difference.release();
+        return mean;
+    }
+}
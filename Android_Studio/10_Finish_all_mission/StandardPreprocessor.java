@@ -0,0 +1,69 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Default preprocessing: cvtColor to RGB, resize, then one bulk Mat.get and a
+ * lookup-table normalization into planar NCHW order.
+ */
+public class StandardPreprocessor implements Preprocessor {
+    private final int inputSize;
+    private final int planeSize;
+
+    // Reusable buffers
+    private final byte[] pixelBuffer;
+    private final float[] planarBuffer;
+    private final Mat rgbImage = new Mat();
+    private final Mat resizedImage = new Mat();
+
+    // pixel value -> normalized [0, 1] float
+    private static final float[] NORMALIZE_LUT = new float[256];
+    static {
+        for (int i = 0; i < NORMALIZE_LUT.length; i++) {
+            NORMALIZE_LUT[i] = (float) (i / 255.0);
+        }
+    }
+
+    public StandardPreprocessor(int inputSize) {
+        this.inputSize = inputSize;
+        this.planeSize = inputSize * inputSize;
+        this.pixelBuffer = new byte[planeSize * 3];
+        this.planarBuffer = new float[planeSize * 3];
+    }
+
+    @Override
+    public void preprocess(Mat image, FloatBuffer target) {
+        // Convert to RGB if needed
+        Mat source = rgbImage;
+        if (image.channels() == 1) {
+            Imgproc.cvtColor(image, rgbImage, Imgproc.COLOR_GRAY2RGB);
+        } else if (image.channels() == 4) {
+            Imgproc.cvtColor(image, rgbImage, Imgproc.COLOR_BGRA2RGB);
+        } else if (image.channels() == 3) {
+            Imgproc.cvtColor(image, rgbImage, Imgproc.COLOR_BGR2RGB);
+        } else {
+            source = image;
+        }
+
+        // Resize to model input size
+        Imgproc.resize(source, resizedImage, new Size(inputSize, inputSize));
+        resizedImage.get(0, 0, pixelBuffer);
+
+        // Interleaved RGBRGB... -> planar RRR...GGG...BBB..., normalized to [0, 1]
+        for (int i = 0, p = 0; i < planeSize; i++, p += 3) {
+            planarBuffer[i] = NORMALIZE_LUT[pixelBuffer[p] & 0xFF];
+            planarBuffer[planeSize + i] = NORMALIZE_LUT[pixelBuffer[p + 1] & 0xFF];
+            planarBuffer[2 * planeSize + i] = NORMALIZE_LUT[pixelBuffer[p + 2] & 0xFF];
+        }
+
+        target.put(planarBuffer);
+    }
+
+    @Override
+    public String getName() {
+        return "standard";
+    }
+}
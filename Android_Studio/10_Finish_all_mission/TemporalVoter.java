@@ -0,0 +1,158 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines YOLO results from several frames of the same area.
+ *
+ * Landmarks: each frame votes for its reported landmark and count (the most confident
+ * landmark, as used for setAreaInfo), weighted by that detection's confidence. Frames
+ * without landmarks do not vote, so one missed frame no longer loses the area. The vote
+ * is settled early once two frames agree with high confidence.
+ *
+ * Treasures: a type is kept if it was seen in at least half of the frames that detected
+ * anything, including frames without a landmark (they still see the treasure).
+ */
+public class TemporalVoter {
+    private static final String TAG = "TemporalVoter";
+    private static final int FRAMES_TO_AGREE = 2;
+
+    private final int areaId;
+    private final float agreeConfidence;
+
+    // One entry per (landmark class, count), in first-seen order (a handful of frames per area)
+    private final List<Vote> votes = new ArrayList<>();
+    private int[] treasureFrames;
+    private int[] treasureMaxCounts;
+    private int frameCount = 0;
+    private int detectingFrames = 0;
+    private boolean settled = false;
+
+    /**
+     * @param areaId Area identifier of the frames
+     * @param agreeConfidence Confidence a frame needs to count towards early agreement
+     */
+    public TemporalVoter(int areaId, float agreeConfidence) {
+        this.areaId = areaId;
+        this.agreeConfidence = agreeConfidence;
+    }
+
+    /**
+     * Add one frame's detection result
+     * @param result YOLO result of the frame
+     * @return true once two confident frames agree (no more frames needed)
+     */
+    public boolean addFrame(YOLODetectionService.EnhancedDetectionResult result) {
+        frameCount++;
+
+        AreaDetection frame = AreaDetection.fromResult(areaId, result);
+        if (frame.hasLandmark() || frame.hasTreasure()) {
+            detectingFrames++;
+        }
+        countTreasures(frame);
+
+        if (!frame.hasLandmark()) {
+            Log.i(TAG, String.format("Frame %d: no landmark, no vote", frameCount));
+            return settled;
+        }
+
+        int landmarkCount = frame.getReportedLandmarkCount();
+        float weight = frame.getLandmarkConfidence();
+        Vote vote = findVote(frame.getLandmarkClassId(), landmarkCount);
+        vote.totalWeight += weight;
+        if (vote.bestFrame == null || weight > vote.bestWeight) {
+            vote.bestWeight = weight;
+            vote.bestFrame = frame;
+        }
+
+        if (weight >= agreeConfidence) {
+            vote.confidentFrames++;
+            if (vote.confidentFrames >= FRAMES_TO_AGREE) {
+                settled = true;
+            }
+        }
+
+        Log.i(TAG, String.format("Frame %d: %s x %d (conf %.2f)%s", frameCount, frame.getLandmarkName(),
+                landmarkCount, weight, settled ? " - agreed, stopping early" : ""));
+        return settled;
+    }
+
+    private void countTreasures(AreaDetection frame) {
+        if (treasureFrames == null) {
+            int numClasses = frame.getClassMetadata().size();
+            treasureFrames = new int[numClasses];
+            treasureMaxCounts = new int[numClasses];
+        }
+        for (int classId = 0; classId < treasureFrames.length; classId++) {
+            int count = frame.getTreasureCount(classId);
+            if (count > 0) {
+                treasureFrames[classId]++;
+                treasureMaxCounts[classId] = Math.max(treasureMaxCounts[classId], count);
+            }
+        }
+    }
+
+    private Vote findVote(int classId, int count) {
+        for (Vote vote : votes) {
+            if (vote.classId == classId && vote.count == count) {
+                return vote;
+            }
+        }
+        Vote vote = new Vote(classId, count);
+        votes.add(vote);
+        return vote;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @param classMetadata Class table (for the result when no frame voted for a landmark)
+     * @param elapsedMs Vision time of the area (ms)
+     * @return Best frame of the winning vote with the voted treasure types; without a landmark
+     *         vote, a result with only the voted treasure types (empty if none)
+     */
+    public AreaDetection getResult(ClassMetadata classMetadata, long elapsedMs) {
+        Vote winner = null;
+        for (Vote vote : votes) {
+            if (winner == null || vote.totalWeight > winner.totalWeight) {
+                winner = vote;
+            }
+        }
+        AreaDetection base = winner != null ? winner.bestFrame : AreaDetection.empty(areaId, classMetadata);
+        if (treasureFrames == null) {
+            return base.withTiming(frameCount, elapsedMs);
+        }
+
+        // Treasure types seen in at least half of the frames that detected anything
+        int[] treasureCounts = new int[treasureFrames.length];
+        for (int classId = 0; classId < treasureFrames.length; classId++) {
+            if (treasureFrames[classId] > 0 && treasureFrames[classId] * 2 >= detectingFrames) {
+                treasureCounts[classId] = treasureMaxCounts[classId];
+            }
+        }
+        return base.withTreasureCounts(treasureCounts).withTiming(frameCount, elapsedMs);
+    }
+
+    private static final class Vote {
+        final int classId;
+        final int count;
+        float totalWeight = 0f;
+        int confidentFrames = 0;
+        float bestWeight = -1f;
+        AreaDetection bestFrame;
+
+        Vote(int classId, int count) {
+            this.classId = classId;
+            this.count = count;
+        }
+    }
+}
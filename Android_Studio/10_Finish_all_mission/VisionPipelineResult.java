@@ -0,0 +1,157 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Output of the ArUco crop + CLAHE pipeline for one image: the YOLO input plus debug
+ * artifacts (marker/axis frame, crops, Otsu binary, min/max stats) attached as suppliers.
+ * Artifacts are only computed when a consumer asks for them, so a production run does
+ * only the work that feeds YOLO.
+ *
+ * Suppliers read Mats that this result retains, so request artifacts before release().
+ */
+public class VisionPipelineResult {
+    private final int areaId;
+    private Mat yoloInput;
+
+    private final Map<String, Supplier<Mat>> debugImages = new LinkedHashMap<>();
+    private final Map<String, Boolean> finalImages = new HashMap<>();
+    private final Map<String, Mat> materializedImages = new HashMap<>();
+    private final List<Supplier<String>> debugStats = new ArrayList<>();
+    private final List<Mat> retainedMats = new ArrayList<>();
+
+    public VisionPipelineResult(int areaId) {
+        this.areaId = areaId;
+    }
+
+    public int getAreaId() {
+        return areaId;
+    }
+
+    /**
+     * @return CLAHE-enhanced crop fed to YOLO (owned by this result), or null if the pipeline failed
+     */
+    public Mat getYoloInput() {
+        return yoloInput;
+    }
+
+    void setYoloInput(Mat yoloInput) {
+        this.yoloInput = yoloInput;
+    }
+
+    /**
+     * Attach a debug image
+     * @param filename File name used when the image is saved
+     * @param isFinal true for images fed to the detector, false for intermediate ones
+     * @param supplier Computes a new Mat on request (the result takes ownership)
+     */
+    void addDebugImage(String filename, boolean isFinal, Supplier<Mat> supplier) {
+        debugImages.put(filename, supplier);
+        finalImages.put(filename, isFinal);
+    }
+
+    /**
+     * Attach a debug statistic (e.g. min/max of an intermediate image) computed on request
+     */
+    void addDebugStat(Supplier<String> supplier) {
+        debugStats.add(supplier);
+    }
+
+    /**
+     * Keep a Mat alive until release() because a supplier reads it
+     */
+    void retain(Mat mat) {
+        retainedMats.add(mat);
+    }
+
+    /**
+     * @return File names of all attached debug images, in pipeline order
+     */
+    public List<String> getDebugImageNames() {
+        return new ArrayList<>(debugImages.keySet());
+    }
+
+    public boolean isFinalImage(String filename) {
+        Boolean isFinal = finalImages.get(filename);
+        return isFinal != null && isFinal;
+    }
+
+    /**
+     * Compute (once) and return a debug image
+     * @param filename Name from getDebugImageNames()
+     * @return Debug image owned by this result, or null if unknown
+     */
+    public Mat getDebugImage(String filename) {
+        Mat image = materializedImages.get(filename);
+        if (image == null) {
+            Supplier<Mat> supplier = debugImages.get(filename);
+            if (supplier == null) {
+                return null;
+            }
+            image = supplier.get();
+            materializedImages.put(filename, image);
+        }
+        return image;
+    }
+
+    /**
+     * Compute a debug image and hand it over (not cached here)
+     * @param filename Name from getDebugImageNames()
+     * @return Debug image owned by the caller, or null if unknown
+     */
+    public Mat takeDebugImage(String filename) {
+        Mat image = materializedImages.remove(filename);
+        if (image != null) {
+            return image;
+        }
+        Supplier<Mat> supplier = debugImages.get(filename);
+        return supplier != null ? supplier.get() : null;
+    }
+
+    /**
+     * Compute and return all debug statistics
+     */
+    public List<String> getDebugStats() {
+        List<String> stats = new ArrayList<>(debugStats.size());
+        for (Supplier<String> supplier : debugStats) {
+            stats.add(supplier.get());
+        }
+        return stats;
+    }
+
+    /**
+     * Release retained and materialized debug Mats. The YOLO input is kept; release it separately.
+     */
+    public void releaseDebug() {
+        for (Mat image : materializedImages.values()) {
+            if (image != null) {
+                image.release();
+            }
+        }
+        materializedImages.clear();
+        for (Mat mat : retainedMats) {
+            mat.release();
+        }
+        retainedMats.clear();
+        debugImages.clear();
+        debugStats.clear();
+    }
+
+    /**
+     * Release everything, including the YOLO input
+     */
+    public void release() {
+        releaseDebug();
+        if (yoloInput != null) {
+            yoloInput.release();
+            yoloInput = null;
+        }
+    }
+}
@@ -0,0 +1,762 @@
+package jp.jaxa.iss.kibo.rpc.sampleapk;
+
+import ai.onnxruntime.*;
+import android.content.Context;
+import android.util.Log;
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Map;
+
+/**
+ * On-device micro benchmarks and parity checks for the YOLO pipeline.
+ * Results are written to logcat so they can be read from adb.log after a simulator run.
+ *
+ * Usage (e.g. from runPlan2):
+ *     YOLOBenchmark.benchmarkPreprocessing(50);
+ *     YOLOBenchmark.checkPreprocessorParity(api.getMatNavCam());
+ *     YOLOBenchmark.benchmarkSessionConfigs(this, 30);
+ *     YOLOBenchmark.checkModelVariantParity(this, ModelVariant.INT8_STATIC, debugImageDir);
+ *     YOLOBenchmark.checkNmsParity(500, 42L);
+ *     YOLOBenchmark.benchmarkNms(2000, 50);
+ *     YOLOBenchmark.benchmarkNmsOnDebugImages(this, debugImageDir, 50);
+ *     YOLOBenchmark.checkTopKParity(this, debugImageDir, 300);
+ *     YOLOBenchmark.benchmarkEnhancers(this, Arrays.asList(registry.clahe(2.0, 8), registry.equalizeHist()), debugImageDir);
+ */
+public class YOLOBenchmark {
+    private static final String TAG = "YOLOBenchmark";
+    private static final int INPUT_SIZE = 320;
+    private static final int TENSOR_SIZE = 3 * INPUT_SIZE * INPUT_SIZE;
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final float PARITY_TOLERANCE = 1e-6f;
+    private static final String DEBUG_IMAGE_SUFFIX = "_yolo_clahe_320x320.png";
+    private static final String UNENHANCED_IMAGE_SUFFIX = "_yolo_original_320x320.png";
+    private static final int NUM_CLASSES = YOLODetectionService.getClassNames().length;
+    private static final float[] NMS_THRESHOLDS = {0.0f, 0.3f, 0.45f, 0.8f, 1.0f};
+
+    private YOLOBenchmark() {
+    }
+
+    /**
+     * Compare the old per-pixel Mat.get preprocessing loop against the preprocessing backends
+     * @param iterations Number of timed iterations per method
+     */
+    public static void benchmarkPreprocessing(int iterations) {
+        Mat image = new Mat(INPUT_SIZE, INPUT_SIZE, CvType.CV_8UC3);
+        Core.randu(image, 0, 256);
+
+        Preprocessor standard = new StandardPreprocessor(INPUT_SIZE);
+        Preprocessor blob = new BlobPreprocessor(INPUT_SIZE);
+        FloatBuffer buffer = FloatBuffer.allocate(TENSOR_SIZE);
+
+        double legacyMs = meanMs(iterations, () -> legacyMatToFloatArray(image));
+        float[][][][] legacy = legacyMatToFloatArray(image);
+
+        double standardMs = meanMs(iterations, () -> runPreprocessor(standard, image, buffer));
+        float standardDiff = maxAbsDifference(legacy, buffer.array());
+
+        double blobMs = meanMs(iterations, () -> runPreprocessor(blob, image, buffer));
+        float blobDiff = maxAbsDifference(legacy, buffer.array());
+
+        Log.i(TAG, String.format("Preprocessing (%d iterations): per-pixel Mat.get %.2f ms", iterations, legacyMs));
+        Log.i(TAG, String.format("  %s: %.2f ms, speedup %.1fx, max diff %.3g",
+                standard.getName(), standardMs, legacyMs / standardMs, standardDiff));
+        Log.i(TAG, String.format("  %s: %.2f ms, speedup %.1fx, max diff %.3g",
+                blob.getName(), blobMs, legacyMs / blobMs, blobDiff));
+
+        image.release();
+    }
+
+    /**
+     * Check that BlobPreprocessor produces the same tensor as StandardPreprocessor
+     * @param image Real input image (e.g. a CLAHE crop or raw NavCam frame)
+     * @return true if all tensor values match within 1e-6
+     */
+    public static boolean checkPreprocessorParity(Mat image) {
+        FloatBuffer standardBuffer = FloatBuffer.allocate(TENSOR_SIZE);
+        FloatBuffer blobBuffer = FloatBuffer.allocate(TENSOR_SIZE);
+
+        runPreprocessor(new StandardPreprocessor(INPUT_SIZE), image, standardBuffer);
+        runPreprocessor(new BlobPreprocessor(INPUT_SIZE), image, blobBuffer);
+
+        float[] expected = standardBuffer.array();
+        float[] actual = blobBuffer.array();
+        float maxDiff = 0f;
+        for (int i = 0; i < TENSOR_SIZE; i++) {
+            maxDiff = Math.max(maxDiff, Math.abs(expected[i] - actual[i]));
+        }
+
+        boolean passed = maxDiff <= PARITY_TOLERANCE;
+        Log.i(TAG, String.format("Preprocessor parity (%d channels): max diff %.3g -> %s",
+                image.channels(), maxDiff, passed ? "PASS" : "FAIL"));
+        return passed;
+    }
+
+    /**
+     * Time session creation and inference for a set of ONNX Runtime settings and
+     * log the results as a markdown table
+     * @param context Android context (used to locate the copied model)
+     * @param iterations Number of timed inferences per setting
+     */
+    public static void benchmarkSessionConfigs(Context context, int iterations) {
+        File modelFile;
+        String modelHash;
+        try {
+            YOLODetectionService service = YOLODetectionService.getInstance(context);
+            modelFile = service.getModelFile();
+            modelHash = service.getModelHash();
+        } catch (Exception e) {
+            Log.e(TAG, "Could not extract model: " + e.getMessage());
+            return;
+        }
+
+        SessionConfig[] configs = {
+                new SessionConfig().setCacheOptimizedModel(false),  // mission settings without cache
+                new SessionConfig().setOptLevel(OrtSession.SessionOptions.OptLevel.EXTENDED_OPT)
+                        .setCacheOptimizedModel(false),
+                new SessionConfig().setOptLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT)
+                        .setCacheOptimizedModel(false),
+                new SessionConfig().setIntraOpThreads(1).setCacheOptimizedModel(false),
+                new SessionConfig().setIntraOpThreads(2).setCacheOptimizedModel(false),
+                new SessionConfig().setIntraOpThreads(4).setCacheOptimizedModel(false),
+                new SessionConfig().setCpuArena(false).setMemoryPattern(false).setCacheOptimizedModel(false),
+                new SessionConfig().setExecutionMode(OrtSession.SessionOptions.ExecutionMode.PARALLEL)
+                        .setInterOpThreads(2).setCacheOptimizedModel(false),
+                new SessionConfig(),  // default; run twice so the second run loads the optimized cache
+                new SessionConfig()
+        };
+
+        FloatBuffer input = ByteBuffer.allocateDirect(TENSOR_SIZE * 4)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        long[] shape = {1, 3, INPUT_SIZE, INPUT_SIZE};
+
+        Log.i(TAG, String.format("Session config benchmark (%d iterations, %d cores)",
+                iterations, Runtime.getRuntime().availableProcessors()));
+        Log.i(TAG, "| config | load ms | mean inference ms | min inference ms |");
+        Log.i(TAG, "|---|---|---|---|");
+
+        OrtEnvironment env = OrtEnvironment.getEnvironment();
+        for (SessionConfig config : configs) {
+            try {
+                long loadStart = System.nanoTime();
+                OrtSession session = config.createSession(env, modelFile, modelHash);
+                double loadMs = (System.nanoTime() - loadStart) / 1e6;
+
+                double totalMs = 0;
+                double minMs = Double.MAX_VALUE;
+                for (int i = 0; i < WARMUP_ITERATIONS + iterations; i++) {
+                    OnnxTensor tensor = OnnxTensor.createTensor(env, input, shape);
+                    long start = System.nanoTime();
+                    OrtSession.Result result = session.run(Collections.singletonMap("images", tensor));
+                    double ms = (System.nanoTime() - start) / 1e6;
+                    result.close();
+                    tensor.close();
+
+                    if (i >= WARMUP_ITERATIONS) {
+                        totalMs += ms;
+                        minMs = Math.min(minMs, ms);
+                    }
+                }
+                session.close();
+
+                Log.i(TAG, String.format("| %s | %.1f | %.2f | %.2f |",
+                        config, loadMs, totalMs / iterations, minMs));
+            } catch (Exception e) {
+                Log.e(TAG, "Session config " + config + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Compare a quantized model variant against FP32 on saved YOLO input images
+     * (area_N_yolo_clahe_320x320.png from a DebugImages folder; area 0 is the target).
+     * An image agrees when both models report the same landmark counts and treasure types.
+     * @param context Android context
+     * @param variant Variant to check (e.g. INT8_STATIC)
+     * @param imageDir Folder with the saved DebugImages
+     * @return Fraction of images on which the variant agrees with FP32 (0 if none could be run)
+     */
+    public static double checkModelVariantParity(Context context, YOLODetectionService.ModelVariant variant,
+                                                 File imageDir) {
+        YOLODetectionService reference = YOLODetectionService.createStandalone(
+                context, YOLODetectionService.ModelVariant.FP32);
+        YOLODetectionService candidate = YOLODetectionService.createStandalone(context, variant);
+        Mat warmUpImage = Mat.zeros(INPUT_SIZE, INPUT_SIZE, CvType.CV_8UC1);
+        try {
+            // First call also loads the model; keep it out of the timings
+            reference.DetectfromcvImage(warmUpImage, "lost");
+            candidate.DetectfromcvImage(warmUpImage, "lost");
+            if (candidate.getModelVariant() != variant) {
+                Log.e(TAG, variant + " model not available - parity check skipped");
+                return 0.0;
+            }
+
+            int[] agreed = {0};
+            double[] detectMs = new double[2];  // FP32, variant
+            int total = forEachDebugImage(imageDir, DEBUG_IMAGE_SUFFIX, Imgcodecs.IMREAD_UNCHANGED,
+                    (name, imageType, image) -> {
+                        long startTime = System.nanoTime();
+                        YOLODetectionService.EnhancedDetectionResult expected = reference.DetectfromcvImage(image, imageType);
+                        detectMs[0] += (System.nanoTime() - startTime) / 1e6;
+
+                        startTime = System.nanoTime();
+                        YOLODetectionService.EnhancedDetectionResult actual = candidate.DetectfromcvImage(image, imageType);
+                        detectMs[1] += (System.nanoTime() - startTime) / 1e6;
+
+                        boolean landmarksMatch = expected.getLandmarkQuantities().equals(actual.getLandmarkQuantities());
+                        boolean treasuresMatch = expected.getTreasureQuantities().keySet()
+                                .equals(actual.getTreasureQuantities().keySet());
+                        if (landmarksMatch && treasuresMatch) {
+                            agreed[0]++;
+                        } else {
+                            Log.w(TAG, String.format("%s mismatch on %s: FP32 %s / %s, %s %s / %s", variant, name,
+                                    namedCounts(expected.getLandmarkQuantities()), expected.getTreasureQuantities().keySet(),
+                                    variant, namedCounts(actual.getLandmarkQuantities()), actual.getTreasureQuantities().keySet()));
+                        }
+                    });
+            if (total == 0) {
+                return 0.0;
+            }
+
+            double agreement = (double) agreed[0] / total;
+            Log.i(TAG, String.format("%s vs FP32 on %d images: %d agree (%.1f%%), mean detect %.2f ms vs %.2f ms (%.2fx)",
+                    variant, total, agreed[0], agreement * 100, detectMs[1] / total, detectMs[0] / total,
+                    detectMs[0] / detectMs[1]));
+            return agreement;
+        } finally {
+            warmUpImage.release();
+            reference.close();
+            candidate.close();
+        }
+    }
+
+    /**
+     * Pick a quantized variant only if it matches FP32 closely enough on the saved DebugImages
+     * @param context Android context
+     * @param variant Preferred variant
+     * @param imageDir Folder with the saved DebugImages
+     * @param minAgreement Required agreement fraction (e.g. 1.0 for every image)
+     * @return variant if it passes the gate, otherwise FP32
+     */
+    public static YOLODetectionService.ModelVariant selectModelVariant(Context context,
+                                                                        YOLODetectionService.ModelVariant variant,
+                                                                        File imageDir, double minAgreement) {
+        if (variant == YOLODetectionService.ModelVariant.FP32) {
+            return variant;
+        }
+        double agreement = checkModelVariantParity(context, variant, imageDir);
+        boolean passed = agreement >= minAgreement;
+        Log.i(TAG, String.format("Model variant gate: %s agreement %.1f%% (required %.1f%%) -> %s",
+                variant, agreement * 100, minAgreement * 100, passed ? variant : "FP32"));
+        return passed ? variant : YOLODetectionService.ModelVariant.FP32;
+    }
+
+    /**
+     * Compare contrast enhancers on saved unenhanced YOLO inputs (area_N_yolo_original_320x320.png,
+     * written by the two-stage crop path in FULL debug mode). For each enhancer, logs the mean
+     * enhancement time, the share of images with at least one landmark (recall proxy) and the
+     * agreement with the first enhancer, which is the reference (normally CLAHE).
+     * @param context Android context
+     * @param enhancers Enhancers to compare; the first one is the reference
+     * @param imageDir Folder with the saved DebugImages
+     */
+    public static void benchmarkEnhancers(Context context, List<ImageEnhancer> enhancers, File imageDir) {
+        if (enhancers.isEmpty()) {
+            Log.e(TAG, "No enhancers given");
+            return;
+        }
+
+        int count = enhancers.size();
+        double[] enhanceMs = new double[count];
+        int[] withLandmark = new int[count];
+        int[] agreed = new int[count];
+
+        YOLODetectionService detector = YOLODetectionService.createStandalone(
+                context, YOLODetectionService.ModelVariant.FP32);
+        Mat enhanced = new Mat();
+        try {
+            int total = forEachDebugImage(imageDir, UNENHANCED_IMAGE_SUFFIX, Imgcodecs.IMREAD_GRAYSCALE,
+                    (name, imageType, image) -> {
+                        Map<Integer, Integer> referenceLandmarks = null;
+                        for (int i = 0; i < count; i++) {
+                            ImageEnhancer enhancer = enhancers.get(i);
+                            enhancer.apply(image, enhanced);  // warm-up (and first use of the native object)
+
+                            long startTime = System.nanoTime();
+                            enhancer.apply(image, enhanced);
+                            enhanceMs[i] += (System.nanoTime() - startTime) / 1e6;
+
+                            Map<Integer, Integer> landmarks = detector.DetectfromcvImage(enhanced, imageType).getLandmarkQuantities();
+                            if (!landmarks.isEmpty()) {
+                                withLandmark[i]++;
+                            }
+                            if (i == 0) {
+                                referenceLandmarks = landmarks;
+                            }
+                            if (landmarks.equals(referenceLandmarks)) {
+                                agreed[i]++;
+                            }
+                        }
+                    });
+            if (total == 0) {
+                return;
+            }
+
+            Log.i(TAG, String.format("Enhancers on %d images (reference: %s):", total, enhancers.get(0).getName()));
+            Log.i(TAG, "| Enhancer | Enhance (ms) | Images with landmark | Agrees with reference |");
+            Log.i(TAG, "|---|---|---|---|");
+            for (int i = 0; i < count; i++) {
+                Log.i(TAG, String.format("| %s | %.3f | %d/%d | %d/%d |", enhancers.get(i).getName(),
+                        enhanceMs[i] / total, withLandmark[i], total, agreed[i], total));
+            }
+        } finally {
+            enhanced.release();
+            detector.close();
+        }
+    }
+
+    /**
+     * Property check for NmsEngine on random candidate sets (clustered boxes, tied scores,
+     * empty boxes, all thresholds used by the pipeline). For every set:
+     *     pairwise == kernel == grid NMS == the former calculateIoU loop (same kept indices, same order)
+     *     batched (class-offset) NMS == NMS run separately per class
+     * @param trials Number of random candidate sets
+     * @param seed Random seed (failures log the trial number for replay)
+     * @return true if every trial matched
+     */
+    public static boolean checkNmsParity(int trials, long seed) {
+        Random random = new Random(seed);
+        NmsEngine engine = new NmsEngine();
+        int failures = 0;
+
+        for (int trial = 0; trial < trials; trial++) {
+            int count = 1 + random.nextInt(trial % 5 == 0 ? 2000 : 300);
+            YOLODetectionService.CandidateBuffer candidates = randomCandidates(random, count);
+            float threshold = NMS_THRESHOLDS[random.nextInt(NMS_THRESHOLDS.length)];
+
+            int[] indices = sortedIndices(candidates);
+
+            int[] expected = legacyNms(candidates, indices, count, threshold);
+            int[][] actual = runNmsPaths(engine, candidates, indices, threshold, false);
+            if (!Arrays.equals(expected, actual[0]) || !Arrays.equals(expected, actual[1])
+                    || !Arrays.equals(expected, actual[2])) {
+                failures++;
+                Log.e(TAG, String.format("NMS parity trial %d (%d candidates, threshold %.2f): legacy %d kept, "
+                                + "pairwise %d, kernel %d, grid %d", trial, count, threshold,
+                        expected.length, actual[0].length, actual[1].length, actual[2].length));
+            }
+
+            int[] perClass = perClassNms(engine, candidates, indices, count, threshold);
+            int[][] batched = runNmsPaths(engine, candidates, indices, threshold, true);
+            if (!Arrays.equals(perClass, batched[0]) || !Arrays.equals(perClass, batched[1])
+                    || !Arrays.equals(perClass, batched[2])) {
+                failures++;
+                Log.e(TAG, String.format("Batched NMS parity trial %d (%d candidates, threshold %.2f): per-class %d kept, "
+                                + "pairwise %d, kernel %d, grid %d", trial, count, threshold,
+                        perClass.length, batched[0].length, batched[1].length, batched[2].length));
+            }
+        }
+
+        boolean passed = failures == 0;
+        Log.i(TAG, String.format("NMS parity: %d random trials (seed %d), %d failures -> %s",
+                trials, seed, failures, passed ? "PASS" : "FAIL"));
+        return passed;
+    }
+
+    /**
+     * Time the former calculateIoU loop and the NmsEngine pairwise, kernel and grid paths on random candidates
+     * @param count Number of candidates (e.g. 2000 for a low-threshold target image)
+     * @param iterations Number of timed runs
+     */
+    public static void benchmarkNms(int count, int iterations) {
+        YOLODetectionService.CandidateBuffer candidates = randomCandidates(new Random(count), count);
+        NmsEngine engine = new NmsEngine();
+        int[] indices = sortedIndices(candidates);
+
+        double[] timings = timeNms(engine, candidates, indices, iterations);
+        int keptCount = engine.suppress(candidates, indices, count, 0.45f, false, candidates.keptIndices);
+
+        Log.i(TAG, String.format("NMS on %d candidates (%d kept, %d iterations): calculateIoU loop %.3f ms, "
+                        + "pairwise %.3f ms (%.1fx), IoU kernel %.3f ms (%.1fx), grid %.3f ms (%.1fx)",
+                count, keptCount, iterations, timings[0], timings[1], timings[0] / timings[1],
+                timings[2], timings[0] / timings[2], timings[3], timings[0] / timings[3]));
+    }
+
+    /**
+     * Time NMS on the real candidate sets of saved YOLO inputs (area_N_yolo_clahe_320x320.png).
+     * Every image is decoded with the "target" confidence threshold (0.3), the worst case for
+     * candidate counts, and all candidates go through NMS at 0.45 as one set.
+     * Logs a markdown table: candidates, kept, former calculateIoU loop, pairwise, IoU kernel, grid.
+     * The smallest candidate count from which the kernel column stays below the pairwise column
+     * is the kernel crossover (NmsEngine.DEFAULT_KERNEL_MIN_CANDIDATES); the one from which the
+     * grid column stays below both is the value for YOLODetectionService.setNmsGridMinCandidates.
+     * @param context Android context
+     * @param imageDir Folder with the saved DebugImages
+     * @param iterations Number of timed runs per image and method
+     */
+    public static void benchmarkNmsOnDebugImages(Context context, File imageDir, int iterations) {
+        YOLODetectionService detector = YOLODetectionService.createStandalone(
+                context, YOLODetectionService.ModelVariant.FP32);
+        NmsEngine engine = new NmsEngine();
+        try {
+            Log.i(TAG, "| Image | Candidates | Kept | calculateIoU loop (ms) | Pairwise (ms) | IoU kernel (ms) | Grid (ms) |");
+            Log.i(TAG, "|---|---|---|---|---|---|---|");
+            forEachDebugImage(imageDir, DEBUG_IMAGE_SUFFIX, Imgcodecs.IMREAD_UNCHANGED,
+                    (name, imageType, image) -> {
+                        detector.DetectfromcvImage(image, "target", 0.3f, 0.45f, 0.8f);
+                        YOLODetectionService.CandidateBuffer candidates = detector.copyLastCandidates();
+                        int[] indices = sortedIndices(candidates);
+
+                        double[] timings = timeNms(engine, candidates, indices, iterations);
+                        int keptCount = engine.suppress(candidates, indices, candidates.size, 0.45f, false,
+                                candidates.keptIndices);
+
+                        Log.i(TAG, String.format("| %s | %d | %d | %.4f | %.4f | %.4f | %.4f |",
+                                name, candidates.size, keptCount, timings[0], timings[1], timings[2], timings[3]));
+                    });
+        } finally {
+            detector.close();
+        }
+    }
+
+    /**
+     * Check that the top-K candidate cap does not change detections on saved YOLO inputs
+     * (area_N_yolo_clahe_320x320.png). Every image is run as "lost" (conf 0.5) and as
+     * "target" (conf 0.3) with and without the cap; detections and all quantities must match.
+     * @param context Android context
+     * @param imageDir Folder with the saved DebugImages
+     * @param maxCandidatesPerGroup K to check
+     * @return true if every run matched
+     */
+    public static boolean checkTopKParity(Context context, File imageDir, int maxCandidatesPerGroup) {
+        YOLODetectionService detector = YOLODetectionService.createStandalone(
+                context, YOLODetectionService.ModelVariant.FP32);
+        String[] imageTypes = {"lost", "target"};
+        float[] confThresholds = {0.5f, 0.3f};
+        int[] mismatches = {0};
+        int images;
+        try {
+            images = forEachDebugImage(imageDir, DEBUG_IMAGE_SUFFIX, Imgcodecs.IMREAD_UNCHANGED,
+                    (name, imageType, image) -> {
+                        for (int t = 0; t < imageTypes.length; t++) {
+                            detector.setMaxCandidatesPerGroup(Integer.MAX_VALUE);
+                            YOLODetectionService.EnhancedDetectionResult expected =
+                                    detector.DetectfromcvImage(image, imageTypes[t], confThresholds[t], 0.45f, 0.8f);
+                            int candidateCount = detector.copyLastCandidates().size;
+
+                            detector.setMaxCandidatesPerGroup(maxCandidatesPerGroup);
+                            YOLODetectionService.EnhancedDetectionResult actual =
+                                    detector.DetectfromcvImage(image, imageTypes[t], confThresholds[t], 0.45f, 0.8f);
+
+                            boolean matches = expected.getDetections().toString().equals(actual.getDetections().toString())
+                                    && expected.getAllQuantities().equals(actual.getAllQuantities());
+                            if (!matches) {
+                                mismatches[0]++;
+                                Log.w(TAG, String.format("Top-%d mismatch on %s (%s, %d candidates): %s vs %s",
+                                        maxCandidatesPerGroup, name, imageTypes[t], candidateCount,
+                                        namedCounts(expected.getAllQuantities()), namedCounts(actual.getAllQuantities())));
+                            }
+                        }
+                    });
+        } finally {
+            detector.close();
+        }
+
+        int runs = images * imageTypes.length;
+        boolean passed = runs > 0 && mismatches[0] == 0;
+        Log.i(TAG, String.format("Top-%d parity: %d runs, %d mismatches -> %s",
+                maxCandidatesPerGroup, runs, mismatches[0], passed ? "PASS" : "FAIL"));
+        return passed;
+    }
+
+    /**
+     * Random candidates in a 320x320 image: a few clusters of jittered boxes (like YOLO anchors
+     * around one object), scores on a 0.05 grid so ties occur, and some empty boxes
+     */
+    private static YOLODetectionService.CandidateBuffer randomCandidates(Random random, int count) {
+        YOLODetectionService.CandidateBuffer candidates = new YOLODetectionService.CandidateBuffer(count);
+        candidates.clear(count);
+        int clusters = 1 + random.nextInt(8);
+        float[] clusterX = new float[clusters];
+        float[] clusterY = new float[clusters];
+        float[] clusterSize = new float[clusters];
+        for (int k = 0; k < clusters; k++) {
+            clusterX[k] = random.nextFloat() * INPUT_SIZE;
+            clusterY[k] = random.nextFloat() * INPUT_SIZE;
+            clusterSize[k] = 5 + random.nextFloat() * 120;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int k = random.nextInt(clusters);
+            float jitter = clusterSize[k] * 0.3f;
+            float width = random.nextInt(20) == 0 ? 0f : clusterSize[k] * (0.5f + random.nextFloat());
+            float height = clusterSize[k] * (0.5f + random.nextFloat());
+            float score = 0.3f + 0.05f * random.nextInt(14);
+            candidates.add(clusterX[k] + (random.nextFloat() - 0.5f) * jitter,
+                    clusterY[k] + (random.nextFloat() - 0.5f) * jitter,
+                    width, height, score, random.nextInt(NUM_CLASSES));
+        }
+        return candidates;
+    }
+
+    /**
+     * NMS run separately for each class, merged back into rank order
+     */
+    private static int[] perClassNms(NmsEngine engine, YOLODetectionService.CandidateBuffer candidates,
+                                     int[] indices, int count, float threshold) {
+        boolean[] keep = new boolean[candidates.size];
+        int[] classIndices = new int[count];
+        int[] kept = new int[count];
+        for (int classId = 0; classId < NUM_CLASSES; classId++) {
+            int classCount = 0;
+            for (int r = 0; r < count; r++) {
+                if (candidates.classId[indices[r]] == classId) {
+                    classIndices[classCount++] = indices[r];
+                }
+            }
+            int keptCount = engine.suppressPairwise(candidates, classIndices, classCount, threshold, false, kept);
+            for (int i = 0; i < keptCount; i++) {
+                keep[kept[i]] = true;
+            }
+        }
+
+        int[] merged = new int[count];
+        int mergedCount = 0;
+        for (int r = 0; r < count; r++) {
+            if (keep[indices[r]]) {
+                merged[mergedCount++] = indices[r];
+            }
+        }
+        return Arrays.copyOf(merged, mergedCount);
+    }
+
+    /**
+     * The NMS loop and calculateIoU of YOLODetectionService before NmsEngine, kept as the reference
+     */
+    private static int[] legacyNms(YOLODetectionService.CandidateBuffer c, int[] indices, int count, float nmsThreshold) {
+        int[] kept = new int[count];
+        int keptCount = 0;
+        boolean[] suppressed = new boolean[count];
+
+        for (int i = 0; i < count; i++) {
+            if (suppressed[i]) continue;
+
+            int a = indices[i];
+            kept[keptCount++] = a;
+
+            for (int j = i + 1; j < count; j++) {
+                if (suppressed[j]) continue;
+                int b = indices[j];
+
+                float x1_a = c.centerX[a] - c.width[a] / 2;
+                float y1_a = c.centerY[a] - c.height[a] / 2;
+                float x2_a = c.centerX[a] + c.width[a] / 2;
+                float y2_a = c.centerY[a] + c.height[a] / 2;
+
+                float x1_b = c.centerX[b] - c.width[b] / 2;
+                float y1_b = c.centerY[b] - c.height[b] / 2;
+                float x2_b = c.centerX[b] + c.width[b] / 2;
+                float y2_b = c.centerY[b] + c.height[b] / 2;
+
+                float intersectionX1 = Math.max(x1_a, x1_b);
+                float intersectionY1 = Math.max(y1_a, y1_b);
+                float intersectionX2 = Math.min(x2_a, x2_b);
+                float intersectionY2 = Math.min(y2_a, y2_b);
+
+                float iou = 0.0f;
+                if (intersectionX2 > intersectionX1 && intersectionY2 > intersectionY1) {
+                    float intersectionArea = (intersectionX2 - intersectionX1) * (intersectionY2 - intersectionY1);
+                    float unionArea = c.width[a] * c.height[a] + c.width[b] * c.height[b] - intersectionArea;
+                    iou = intersectionArea / unionArea;
+                }
+
+                if (iou > nmsThreshold) {
+                    suppressed[j] = true;
+                }
+            }
+        }
+        return Arrays.copyOf(kept, keptCount);
+    }
+
+    private static int[] keptArray(int keptCount, int[] kept) {
+        return Arrays.copyOf(kept, keptCount);
+    }
+
+    private static String namedCounts(Map<Integer, Integer> quantities) {
+        StringBuilder builder = new StringBuilder("{");
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(YOLODetectionService.getClassName(entry.getKey())).append('=').append(entry.getValue());
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * Callback of forEachDebugImage
+     */
+    private interface DebugImageVisitor {
+        /**
+         * @param name File name
+         * @param imageType "target" for area 0, "lost" for the other areas
+         * @param image Decoded image (released after the call)
+         */
+        void visit(String name, String imageType, Mat image);
+    }
+
+    /**
+     * Run visitor on every saved area_N_*suffix image of a DebugImages folder, in file name order
+     * @param imageDir Folder with the saved DebugImages
+     * @param suffix File name suffix (e.g. DEBUG_IMAGE_SUFFIX)
+     * @param readFlags Imgcodecs.imread flags
+     * @param visitor Called once per image that could be read
+     * @return Number of images visited (0 is logged as an error)
+     */
+    private static int forEachDebugImage(File imageDir, String suffix, int readFlags, DebugImageVisitor visitor) {
+        File[] imageFiles = imageDir.listFiles();
+        if (imageFiles == null) {
+            Log.e(TAG, "Cannot list " + imageDir);
+            return 0;
+        }
+        Arrays.sort(imageFiles);
+
+        int visited = 0;
+        for (File imageFile : imageFiles) {
+            String name = imageFile.getName();
+            if (!name.startsWith("area_") || !name.endsWith(suffix)) {
+                continue;
+            }
+            Mat image = Imgcodecs.imread(imageFile.getAbsolutePath(), readFlags);
+            if (image == null || image.empty()) {
+                Log.w(TAG, "Could not read " + name);
+                continue;
+            }
+            try {
+                visitor.visit(name, name.startsWith("area_0_") ? "target" : "lost", image);
+                visited++;
+            } finally {
+                image.release();
+            }
+        }
+
+        if (visited == 0) {
+            Log.e(TAG, "No *" + suffix + " images in " + imageDir);
+        }
+        return visited;
+    }
+
+    /**
+     * Mean wall time of body over iterations runs, after WARMUP_ITERATIONS untimed runs
+     * @return Mean time per run (ms)
+     */
+    private static double meanMs(int iterations, Runnable body) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            body.run();
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            body.run();
+        }
+        return (System.nanoTime() - startTime) / 1e6 / iterations;
+    }
+
+    /**
+     * Time the former calculateIoU loop and the NmsEngine paths at threshold 0.45
+     * @return Mean times in ms: {calculateIoU loop, pairwise, IoU kernel, grid}
+     */
+    private static double[] timeNms(NmsEngine engine, YOLODetectionService.CandidateBuffer candidates,
+                                    int[] indices, int iterations) {
+        int count = candidates.size;
+        int[] kept = candidates.keptIndices;
+        return new double[]{
+                meanMs(iterations, () -> legacyNms(candidates, indices, count, 0.45f)),
+                meanMs(iterations, () -> engine.suppressPairwise(candidates, indices, count, 0.45f, false, kept)),
+                meanMs(iterations, () -> engine.suppressWithKernel(candidates, indices, count, 0.45f, false, kept)),
+                meanMs(iterations, () -> engine.suppressWithGrid(candidates, indices, count, 0.45f, false, kept))
+        };
+    }
+
+    /**
+     * Run NMS through the pairwise, kernel and grid paths
+     * @return Kept indices of each path: {pairwise, kernel, grid}
+     */
+    private static int[][] runNmsPaths(NmsEngine engine, YOLODetectionService.CandidateBuffer candidates,
+                                       int[] indices, float threshold, boolean batched) {
+        int count = candidates.size;
+        int[] kept = candidates.keptIndices;
+        return new int[][]{
+                keptArray(engine.suppressPairwise(candidates, indices, count, threshold, batched, kept), kept),
+                keptArray(engine.suppressWithKernel(candidates, indices, count, threshold, batched, kept), kept),
+                keptArray(engine.suppressWithGrid(candidates, indices, count, threshold, batched, kept), kept)
+        };
+    }
+
+    /**
+     * @return All candidate indices, sorted by confidence (highest first)
+     */
+    private static int[] sortedIndices(YOLODetectionService.CandidateBuffer candidates) {
+        int[] indices = new int[candidates.size];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        candidates.sortByConfidence(indices, indices.length);
+        return indices;
+    }
+
+    private static void runPreprocessor(Preprocessor preprocessor, Mat image, FloatBuffer buffer) {
+        buffer.clear();
+        preprocessor.preprocess(image, buffer);
+        buffer.rewind();
+    }
+
+    /**
+     * Original preprocessImage + matToFloatArray implementation, kept as the benchmark baseline
+     * @param image BGR image
+     */
+    private static float[][][][] legacyMatToFloatArray(Mat image) {
+        Mat rgbImage = new Mat();
+        Imgproc.cvtColor(image, rgbImage, Imgproc.COLOR_BGR2RGB);
+        Mat resizedImage = new Mat();
+        Imgproc.resize(rgbImage, resizedImage, new Size(INPUT_SIZE, INPUT_SIZE));
+
+        float[][][][] inputData = new float[1][3][INPUT_SIZE][INPUT_SIZE];
+
+        for (int y = 0; y < INPUT_SIZE; y++) {
+            for (int x = 0; x < INPUT_SIZE; x++) {
+                double[] pixel = resizedImage.get(y, x);
+
+                inputData[0][0][y][x] = (float) (pixel[0] / 255.0);
+                inputData[0][1][y][x] = (float) (pixel[1] / 255.0);
+                inputData[0][2][y][x] = (float) (pixel[2] / 255.0);
+            }
+        }
+
+        rgbImage.release();
+        resizedImage.release();
+        return inputData;
+    }
+
+    private static float maxAbsDifference(float[][][][] nchw, float[] flat) {
+        float maxDiff = 0f;
+        int index = 0;
+        for (int c = 0; c < 3; c++) {
+            for (int y = 0; y < INPUT_SIZE; y++) {
+                for (int x = 0; x < INPUT_SIZE; x++) {
+                    maxDiff = Math.max(maxDiff, Math.abs(nchw[0][c][y][x] - flat[index++]));
+                }
+            }
+        }
+        return maxDiff;
+    }
+}
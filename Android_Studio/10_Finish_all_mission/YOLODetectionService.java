@@ -4,9 +4,10 @@ import ai.onnxruntime.*;
 import android.content.Context;
 import android.util.Log;
 import org.opencv.core.*;
-import org.opencv.imgproc.Imgproc;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.*;
 
@@ -18,27 +19,151 @@ public class YOLODetectionService {
     private static final String TAG = "YOLODetectionService";
     private static final String MODEL_NAME = "yolo_v8n_400.onnx";
     private static final int INPUT_SIZE = 320;
+    private static final int INPUT_PLANE_SIZE = INPUT_SIZE * INPUT_SIZE;
+    private static final long[] INPUT_SHAPE = {1, 3, INPUT_SIZE, INPUT_SIZE};
     private static final float DEFAULT_CONF_THRESHOLD = 0.3f;
     private static final float DEFAULT_STANDARD_NMS_THRESHOLD = 0.45f;
     private static final float DEFAULT_OVERLAP_NMS_THRESHOLD = 0.8f;
+    // Six times the max_det (50 final detections) of the training cfg.yaml; confirm on the robot
+    // with YOLOBenchmark.checkTopKParity (SUMMARY diagnostics log each time the cap applies)
+    private static final int DEFAULT_MAX_CANDIDATES_PER_GROUP = 300;
 
-    // Class definitions matching Python code
-    private static final String[] CLASS_NAMES = {
-            "coin", "compass", "coral", "crystal", "diamond", "emerald",
-            "fossil", "key", "letter", "shell", "treasure_box"
-    };
+    private static final String CLASS_LIST_ASSET = "yolo_v8n_400_classes.txt";
 
-    private static final Set<Integer> TREASURE_IDS = new HashSet<>(Arrays.asList(3, 4, 5)); // crystal, diamond, emerald
-    private static final Set<Integer> LANDMARK_IDS = new HashSet<>(Arrays.asList(0, 1, 2, 6, 7, 8, 9, 10)); // coin, compass, coral, fossil, key, letter, shell, treasure_box
+    // Class names and treasure / landmark groups, replaced by the model's table when it loads
+    private static volatile ClassMetadata classMetadata = ClassMetadata.defaults();
+
+    // Process-wide shared detector (see getInstance)
+    private static final Object INSTANCE_LOCK = new Object();
+    private static volatile YOLODetectionService sharedInstance;
 
     private OrtEnvironment env;
     private OrtSession session;
     private Context context;
     private boolean isInitialized = false;
-
-    public YOLODetectionService(Context context) {
+    private Thread warmUpThread;
+    private SessionConfig sessionConfig = new SessionConfig();
+    private boolean loadModelFromBytes = false;
+    private ModelVariant modelVariant = ModelVariant.FP32;
+
+    // Reusable input tensor buffer and preprocessing backend (guarded by this)
+    private final FloatBuffer inputBuffer = ByteBuffer
+            .allocateDirect(INPUT_PLANE_SIZE * 3 * 4)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    private Preprocessor preprocessor = new StandardPreprocessor(INPUT_SIZE);
+    private FloatBuffer batchInputBuffer;
+    private boolean supportsBatch = false;
+
+    // Diagnostics output level (OFF keeps the inference path free of logging work)
+    private volatile DiagnosticsLevel diagnosticsLevel = DiagnosticsLevel.OFF;
+
+    // Top-K cap on treasure / landmark candidates before NMS (bounds worst-case post-processing)
+    private int maxCandidatesPerGroup = DEFAULT_MAX_CANDIDATES_PER_GROUP;
+
+    // Reusable candidate storage for post-processing (guarded by this)
+    private final CandidateBuffer candidateBuffer = new CandidateBuffer(2100);
+    private final NmsEngine nmsEngine = new NmsEngine();
+
+    private YOLODetectionService(Context context) {
         this.context = context;
-        initializeModel();
+    }
+
+    /**
+     * Get the shared detector, creating it lazily on first use.
+     * The ONNX session itself is only created by warmUpAsync() or the first detection.
+     * @param context Android context (the application context is kept)
+     * @return Process-wide YOLODetectionService instance
+     */
+    public static YOLODetectionService getInstance(Context context) {
+        YOLODetectionService instance = sharedInstance;
+        if (instance == null) {
+            synchronized (INSTANCE_LOCK) {
+                instance = sharedInstance;
+                if (instance == null) {
+                    Context appContext = context.getApplicationContext();
+                    instance = new YOLODetectionService(appContext != null ? appContext : context);
+                    sharedInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Close and drop the shared detector. Call when the owning KiboRpcService is destroyed.
+     */
+    public static void releaseInstance() {
+        synchronized (INSTANCE_LOCK) {
+            if (sharedInstance != null) {
+                sharedInstance.close();
+                sharedInstance = null;
+            }
+        }
+    }
+
+    /**
+     * Create a detector that is not shared through getInstance(), e.g. to run two model
+     * variants side by side. The caller owns it and must close() it.
+     * @param context Android context
+     * @param variant Model variant to load
+     * @return New, uninitialized YOLODetectionService
+     */
+    static YOLODetectionService createStandalone(Context context, ModelVariant variant) {
+        YOLODetectionService service = new YOLODetectionService(context);
+        service.modelVariant = variant;
+        return service;
+    }
+
+    /**
+     * Start loading the model in the background (session creation + one dummy inference)
+     * so the first area does not pay the model-load latency. Safe to call more than once.
+     */
+    public synchronized void warmUpAsync() {
+        if (isInitialized || warmUpThread != null) {
+            return;
+        }
+
+        warmUpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.currentTimeMillis();
+                if (ensureInitialized()) {
+                    runWarmUpInference();
+                }
+                Log.i(TAG, String.format("YOLO warm-up finished in %d ms",
+                        System.currentTimeMillis() - startTime));
+            }
+        }, "YOLOWarmUp");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+
+    /**
+     * Initialize the model if needed. Blocks while another thread is initializing.
+     * @return true if the session is ready for inference
+     */
+    private synchronized boolean ensureInitialized() {
+        if (!isInitialized && session == null) {
+            initializeModel();
+        }
+        return isInitialized;
+    }
+
+    private synchronized void runWarmUpInference() {
+        try {
+            inputBuffer.clear();
+            inputBuffer.put(new float[INPUT_PLANE_SIZE * 3]);
+            inputBuffer.rewind();
+
+            OnnxTensor dummyTensor = OnnxTensor.createTensor(env, inputBuffer, INPUT_SHAPE);
+            OrtSession.Result dummyResult = session.run(Collections.singletonMap("images", dummyTensor));
+            dummyResult.close();
+            dummyTensor.close();
+            Log.i(TAG, "YOLO dummy inference completed");
+        } catch (Exception e) {
+            Log.w(TAG, "YOLO dummy inference failed: " + e.getMessage());
+        }
     }
 
     private void initializeModel() {
@@ -46,14 +171,27 @@ public class YOLODetectionService {
             Log.i(TAG, "Initializing YOLO model...");
 
             env = OrtEnvironment.getEnvironment();
-            File modelFile = copyAssetToFile(MODEL_NAME);
+            ModelCache modelCache = new ModelCache(context);
 
-            OrtSession.SessionOptions sessionOptions = new OrtSession.SessionOptions();
-            sessionOptions.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.BASIC_OPT);
+            if (modelVariant != ModelVariant.FP32 && !hasAsset(modelVariant.getAssetName())) {
+                Log.w(TAG, modelVariant.getAssetName() + " not found in assets - falling back to FP32");
+                modelVariant = ModelVariant.FP32;
+            }
+            String modelName = modelVariant.getAssetName();
 
-            session = env.createSession(modelFile.getAbsolutePath(), sessionOptions);
+            Log.i(TAG, "Model variant: " + modelVariant + " (" + modelName + ")");
+            Log.i(TAG, "Session config: " + sessionConfig);
+            if (loadModelFromBytes) {
+                byte[] modelBytes = modelCache.readAsset(modelName);
+                session = sessionConfig.createSession(env, modelBytes, context.getFilesDir(), modelName);
+            } else {
+                File modelFile = modelCache.getModelFile(modelName);
+                session = sessionConfig.createSession(env, modelFile, modelCache.getContentHash(modelName));
+            }
+            supportsBatch = hasDynamicBatch();
+            classMetadata = ClassMetadata.load(context, CLASS_LIST_ASSET, session);
             isInitialized = true;
-            Log.i(TAG, "YOLO model initialized successfully");
+            Log.i(TAG, "YOLO model initialized successfully (dynamic batch: " + supportsBatch + ")");
 
         } catch (Exception e) {
             Log.e(TAG, "Failed to initialize YOLO model: " + e.getMessage(), e);
@@ -61,21 +199,126 @@ public class YOLODetectionService {
         }
     }
 
-    private File copyAssetToFile(String assetName) throws IOException {
-        InputStream inputStream = context.getAssets().open(assetName);
-        File outputFile = new File(context.getFilesDir(), assetName);
+    private boolean hasAsset(String assetName) {
+        try {
+            context.getAssets().open(assetName).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check whether the model was exported with a dynamic batch axis (dim 0 == -1)
+     */
+    private boolean hasDynamicBatch() {
+        try {
+            NodeInfo inputInfo = session.getInputInfo().get("images");
+            if (inputInfo != null && inputInfo.getInfo() instanceof TensorInfo) {
+                long[] shape = ((TensorInfo) inputInfo.getInfo()).getShape();
+                return shape.length == 4 && shape[0] < 0;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read model input shape: " + e.getMessage());
+        }
+        return false;
+    }
 
-        FileOutputStream outputStream = new FileOutputStream(outputFile);
-        byte[] buffer = new byte[4096];
-        int length;
-        while ((length = inputStream.read(buffer)) > 0) {
-            outputStream.write(buffer, 0, length);
+    /**
+     * Set ONNX Runtime session options. Only takes effect if called before the model
+     * is initialized (i.e. before warmUpAsync() or the first detection).
+     * @param sessionConfig Session settings
+     */
+    public synchronized void setSessionConfig(SessionConfig sessionConfig) {
+        if (session != null) {
+            Log.w(TAG, "Session already created - new session config ignored");
+            return;
+        }
+        this.sessionConfig = sessionConfig;
+    }
+
+    /**
+     * Load the model straight from asset bytes instead of an extracted file.
+     * Only takes effect if called before the model is initialized.
+     * @param loadModelFromBytes true to skip the file copy entirely
+     */
+    public synchronized void setLoadModelFromBytes(boolean loadModelFromBytes) {
+        this.loadModelFromBytes = loadModelFromBytes;
+    }
+
+    /**
+     * Select the model precision. Quantized variants must be added to assets first
+     * (see quantize_onnx.py); a missing variant falls back to FP32. Only takes effect
+     * if called before the model is initialized.
+     * @param modelVariant FP32 (default), FP16, INT8_DYNAMIC or INT8_STATIC
+     */
+    public synchronized void setModelVariant(ModelVariant modelVariant) {
+        if (session != null) {
+            Log.w(TAG, "Session already created - model variant " + modelVariant + " ignored");
+            return;
         }
+        this.modelVariant = modelVariant;
+    }
+
+    /**
+     * @return Model variant in use (FP32 if the requested variant was not found)
+     */
+    public synchronized ModelVariant getModelVariant() {
+        return modelVariant;
+    }
+
+    /**
+     * @return Model file extracted from assets (copied only if missing or stale)
+     */
+    File getModelFile() throws IOException {
+        return new ModelCache(context).getModelFile(modelVariant.getAssetName());
+    }
 
-        outputStream.close();
-        inputStream.close();
+    /**
+     * @return sha256 of the extracted model (call getModelFile first)
+     */
+    String getModelHash() throws IOException {
+        return new ModelCache(context).getContentHash(modelVariant.getAssetName());
+    }
+
+    /**
+     * Switch the preprocessing backend (e.g. BlobPreprocessor instead of StandardPreprocessor)
+     * @param preprocessor Backend that writes the NCHW input tensor
+     */
+    public synchronized void setPreprocessor(Preprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+        Log.i(TAG, "Preprocessor set to " + preprocessor.getName());
+    }
 
-        return outputFile;
+    /**
+     * Set how much detection diagnostics are logged
+     * @param level OFF (default), SUMMARY (one record per inference) or VERBOSE (every step)
+     */
+    public void setDiagnosticsLevel(DiagnosticsLevel level) {
+        this.diagnosticsLevel = level;
+    }
+
+    /**
+     * Cap the treasure and landmark candidate groups to their K highest scores before NMS.
+     * Greedy NMS decides each box only from higher-scoring boxes, so detections within the
+     * top K are unchanged; only boxes ranked below K are dropped.
+     * @param maxCandidatesPerGroup K per group (default 300), or Integer.MAX_VALUE for no cap
+     */
+    public synchronized void setMaxCandidatesPerGroup(int maxCandidatesPerGroup) {
+        this.maxCandidatesPerGroup = Math.max(1, maxCandidatesPerGroup);
+    }
+
+    /**
+     * Use the grid-indexed NMS from this many candidates per group on. Off by default; set it
+     * to the crossover YOLOBenchmark.benchmarkNmsOnDebugImages measures on the robot.
+     * @param gridMinCandidates Candidate count, or Integer.MAX_VALUE for never (default)
+     */
+    public synchronized void setNmsGridMinCandidates(int gridMinCandidates) {
+        nmsEngine.setGridMinCandidates(gridMinCandidates);
+    }
+
+    private boolean isVerbose() {
+        return diagnosticsLevel == DiagnosticsLevel.VERBOSE;
     }
 
     /**
@@ -87,44 +330,49 @@ public class YOLODetectionService {
      * @param overlapNmsThreshold overlap NMS threshold for intelligent NMS (default: 0.8)
      * @return EnhancedDetectionResult with treasure and landmark quantities
      */
-    public EnhancedDetectionResult DetectfromcvImage(Mat image, String imageType,
+    public synchronized EnhancedDetectionResult DetectfromcvImage(Mat image, String imageType,
                                                      float confThreshold,
                                                      float standardNmsThreshold,
                                                      float overlapNmsThreshold) {
-        if (!isInitialized) {
+        if (!ensureInitialized()) {
             Log.e(TAG, "YOLO model not initialized");
             return new EnhancedDetectionResult();
         }
 
         try {
-            Log.i(TAG, "Starting detection for image type: " + imageType);
+            if (isVerbose()) {
+                Log.i(TAG, "Starting detection for image type: " + imageType);
+            }
 
             // Preprocess image
-            Mat preprocessedImage = preprocessImage(image);
-            float[][][][] inputData = matToFloatArray(preprocessedImage);
+            inputBuffer.clear();
+            preprocessor.preprocess(image, inputBuffer);
+            inputBuffer.rewind();
 
-            // Run inference to get raw tensor
+            // Run inference to get raw tensor (direct buffer is used by ONNX Runtime without copying)
             Map<String, OnnxTensor> inputMap = new HashMap<>();
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputData);
+            OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputBuffer, INPUT_SHAPE);
             inputMap.put("images", inputTensor);
 
             OrtSession.Result result = session.run(inputMap);
             OnnxTensor outputTensor = (OnnxTensor) result.get(0);
-            float[][][] rawOutput = (float[][][]) outputTensor.getValue();
+            long[] outputShape = outputTensor.getInfo().getShape();
+            FloatBuffer rawOutput = outputTensor.getFloatBuffer();
 
             // Apply intelligent post-processing pipeline
             EnhancedDetectionResult detectionResult = yoloPostprocessPipeline(
-                    rawOutput, confThreshold, standardNmsThreshold, overlapNmsThreshold,
+                    rawOutput, outputShape, confThreshold, standardNmsThreshold, overlapNmsThreshold,
                     INPUT_SIZE, imageType, image.width(), image.height()
             );
 
             // Clean up
             inputTensor.close();
             result.close();
-            preprocessedImage.release();
 
-            Log.i(TAG, String.format("Detection completed for %s image", imageType));
-            detectionResult.logResults(TAG);
+            if (diagnosticsLevel != DiagnosticsLevel.OFF) {
+                Log.i(TAG, String.format("Detection completed for %s image", imageType));
+                detectionResult.logResults(TAG);
+            }
 
             return detectionResult;
 
@@ -134,6 +382,113 @@ public class YOLODetectionService {
         }
     }
 
+    /**
+     * Detect several images with one session.run call by stacking them into an
+     * [N, 3, 320, 320] tensor. Needs a model exported with a dynamic batch axis
+     * (see yolo_to_onnx.py); with a fixed batch-1 model the images are run one by one.
+     * @param images OpenCV Mat images (e.g. several NavCam crops of the same area)
+     * @param imageType "lost" or "target"
+     * @param confThreshold confidence threshold (default: 0.3)
+     * @param standardNmsThreshold standard NMS threshold (default: 0.45)
+     * @param overlapNmsThreshold overlap NMS threshold for intelligent NMS (default: 0.8)
+     * @return One EnhancedDetectionResult per input image, in input order
+     */
+    public synchronized List<EnhancedDetectionResult> detectBatch(List<Mat> images, String imageType,
+                                                                  float confThreshold,
+                                                                  float standardNmsThreshold,
+                                                                  float overlapNmsThreshold) {
+        List<EnhancedDetectionResult> results = new ArrayList<>(images.size());
+        if (images.isEmpty()) {
+            return results;
+        }
+
+        if (!ensureInitialized()) {
+            Log.e(TAG, "YOLO model not initialized");
+            for (int i = 0; i < images.size(); i++) {
+                results.add(new EnhancedDetectionResult());
+            }
+            return results;
+        }
+
+        if (!supportsBatch || images.size() == 1) {
+            for (Mat image : images) {
+                results.add(DetectfromcvImage(image, imageType, confThreshold,
+                        standardNmsThreshold, overlapNmsThreshold));
+            }
+            return results;
+        }
+
+        try {
+            int batchSize = images.size();
+            if (isVerbose()) {
+                Log.i(TAG, String.format("Starting batch detection of %d images, type: %s", batchSize, imageType));
+            }
+
+            // Preprocess all images into one stacked NCHW buffer
+            int imageTensorSize = 3 * INPUT_PLANE_SIZE;
+            if (batchInputBuffer == null || batchInputBuffer.capacity() < batchSize * imageTensorSize) {
+                batchInputBuffer = ByteBuffer
+                        .allocateDirect(batchSize * imageTensorSize * 4)
+                        .order(ByteOrder.nativeOrder())
+                        .asFloatBuffer();
+            }
+            batchInputBuffer.clear();
+            for (Mat image : images) {
+                preprocessor.preprocess(image, batchInputBuffer);
+            }
+            batchInputBuffer.flip();
+
+            long[] batchShape = {batchSize, 3, INPUT_SIZE, INPUT_SIZE};
+            OnnxTensor inputTensor = OnnxTensor.createTensor(env, batchInputBuffer, batchShape);
+            OrtSession.Result result = session.run(Collections.singletonMap("images", inputTensor));
+            OnnxTensor outputTensor = (OnnxTensor) result.get(0);
+            long[] outputShape = outputTensor.getInfo().getShape();
+            FloatBuffer rawOutput = outputTensor.getFloatBuffer();
+
+            // Post-process each image on its slice of the [N, 15, 2100] output
+            long[] imageOutputShape = {1, outputShape[1], outputShape[2]};
+            int imageOutputSize = (int) (outputShape[1] * outputShape[2]);
+            for (int i = 0; i < batchSize; i++) {
+                rawOutput.position(i * imageOutputSize);
+                FloatBuffer imageOutput = rawOutput.slice();
+                Mat image = images.get(i);
+
+                EnhancedDetectionResult detectionResult = yoloPostprocessPipeline(
+                        imageOutput, imageOutputShape, confThreshold, standardNmsThreshold, overlapNmsThreshold,
+                        INPUT_SIZE, imageType, image.width(), image.height()
+                );
+
+                if (diagnosticsLevel != DiagnosticsLevel.OFF) {
+                    Log.i(TAG, String.format("Batch detection %d/%d completed for %s image", i + 1, batchSize, imageType));
+                    detectionResult.logResults(TAG);
+                }
+                results.add(detectionResult);
+            }
+
+            // Clean up
+            inputTensor.close();
+            result.close();
+
+            return results;
+
+        } catch (Exception e) {
+            Log.e(TAG, "Batch detection failed: " + e.getMessage(), e);
+            results.clear();
+            for (int i = 0; i < images.size(); i++) {
+                results.add(new EnhancedDetectionResult());
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Batch detection with default parameters
+     */
+    public List<EnhancedDetectionResult> detectBatch(List<Mat> images, String imageType) {
+        return detectBatch(images, imageType, DEFAULT_CONF_THRESHOLD,
+                DEFAULT_STANDARD_NMS_THRESHOLD, DEFAULT_OVERLAP_NMS_THRESHOLD);
+    }
+
     /**
      * Convenience method with default parameters
      */
@@ -149,7 +504,7 @@ public class YOLODetectionService {
      */
     public Map<Integer, Integer> getItemCounts(Mat image) {
         EnhancedDetectionResult result = DetectfromcvImage(image, "lost");
-        return result.getAllQuantities();
+        return new LinkedHashMap<>(result.getAllQuantities());
     }
 
     /**
@@ -157,7 +512,7 @@ public class YOLODetectionService {
      * @return Array of class names
      */
     public static String[] getClassNames() {
-        return CLASS_NAMES.clone();
+        return classMetadata.getNames();
     }
 
     /**
@@ -166,16 +521,25 @@ public class YOLODetectionService {
      * @return Class name or null if invalid ID
      */
     public static String getClassName(int classId) {
-        if (classId >= 0 && classId < CLASS_NAMES.length) {
-            return CLASS_NAMES[classId];
-        }
-        return null;
+        return classMetadata.getName(classId);
+    }
+
+    /**
+     * @return Class names and groups of the loaded model (built-in table before loading)
+     */
+    public static ClassMetadata getClassMetadata() {
+        return classMetadata;
     }
 
     /**
-     * Enhanced post-processing pipeline matching Python logic
+     * Enhanced post-processing pipeline matching Python logic.
+     * Reads the flat output buffer in place with stride arithmetic (no jagged array,
+     * no transpose copy) and keeps candidates in the preallocated CandidateBuffer.
+     * @param rawOutput Flat output tensor data, shape [1, 15, 2100] or [1, 2100, 15]
+     * @param outputShape Output tensor shape
      */
-    private EnhancedDetectionResult yoloPostprocessPipeline(float[][][] rawTensor,
+    private EnhancedDetectionResult yoloPostprocessPipeline(FloatBuffer rawOutput,
+                                                            long[] outputShape,
                                                             float confThreshold,
                                                             float standardNmsThreshold,
                                                             float overlapNmsThreshold,
@@ -183,141 +547,128 @@ public class YOLODetectionService {
                                                             String imgType,
                                                             int originalWidth,
                                                             int originalHeight) {
-        Log.i(TAG, String.format("Raw tensor shape: [%d, %d, %d]",
-                rawTensor.length, rawTensor[0].length, rawTensor[0][0].length));
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Raw tensor shape: [%d, %d, %d]",
+                    outputShape[0], outputShape[1], outputShape[2]));
+        }
 
         // ====================================================================
-        // CRITICAL FIX: Transpose tensor from [1, 15, 2100] to [1, 2100, 15]
-        // This matches Python: processed_tensor = raw_tensor.transpose(1, 2)
+        // Python transposes [1, 15, 2100] to [1, 2100, 15]
+        // (processed_tensor = raw_tensor.transpose(1, 2)). Instead of copying,
+        // value(detection, feature) = rawOutput[detection * detStride + feature * featStride]
         // ====================================================================
 
-        float[][] processed;
-        int numDetections, numFeatures;
-
-        // Check if we need to transpose (matches Python logic)
-        if (rawTensor[0].length < rawTensor[0][0].length) {
-            // Need to transpose from [15, 2100] to [2100, 15]
-            Log.i(TAG, "Transposing tensor from [15, 2100] to [2100, 15]");
-
-            numDetections = rawTensor[0][0].length;  // 2100
-            numFeatures = rawTensor[0].length;       // 15
-
-            processed = new float[numDetections][numFeatures];
-
-            // Transpose: processed[detection][feature] = rawTensor[0][feature][detection]
-            for (int det = 0; det < numDetections; det++) {
-                for (int feat = 0; feat < numFeatures; feat++) {
-                    processed[det][feat] = rawTensor[0][feat][det];
-                }
-            }
+        int numDetections, numFeatures, detStride, featStride;
 
+        if (outputShape[1] < outputShape[2]) {
+            // Layout [15, 2100]: features are rows
+            numDetections = (int) outputShape[2];  // 2100
+            numFeatures = (int) outputShape[1];    // 15
+            detStride = 1;
+            featStride = numDetections;
         } else {
-            // Already in correct format [2100, 15]
-            Log.i(TAG, "Tensor already in correct format");
-            processed = rawTensor[0];
-            numDetections = processed.length;
-            numFeatures = processed[0].length;
+            // Layout [2100, 15]: detections are rows
+            numDetections = (int) outputShape[1];
+            numFeatures = (int) outputShape[2];
+            detStride = numFeatures;
+            featStride = 1;
         }
 
-        Log.i(TAG, String.format("Processing %d detection proposals with %d features each",
-                numDetections, numFeatures));
-
-        // Log min/max for each FEATURE across all detections (matches Python Layer 0-14)
-        Log.i(TAG, "Feature min/max values across all detections:");
-        for (int featIdx = 0; featIdx < numFeatures; featIdx++) {
-            float minValue = Float.MAX_VALUE;
-            float maxValue = Float.MIN_VALUE;
-
-            // Find min/max for this feature across all detections
-            for (int detIdx = 0; detIdx < numDetections; detIdx++) {
-                float value = processed[detIdx][featIdx];
-                minValue = Math.min(minValue, value);
-                maxValue = Math.max(maxValue, value);
-            }
-
-            // This should now match Python's "Layer X: min=..., max=..."
-            Log.i(TAG, String.format("Layer %d: min=%.6f, max=%.6f",
-                    featIdx, minValue, maxValue));
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Processing %d detection proposals with %d features each",
+                    numDetections, numFeatures));
         }
 
-        List<DetectionCandidate> candidates = new ArrayList<>();
+        if (numFeatures < 5) {
+            return new EnhancedDetectionResult();
+        }
 
-        // Step 1: Extract all detection candidates above confidence threshold
-        for (int i = 0; i < processed.length; i++) {
-            float[] prediction = processed[i];
+        // Scale coordinates back to original image size
+        float scaleX = (float) originalWidth / imgSize;
+        float scaleY = (float) originalHeight / imgSize;
+        ClassMetadata metadata = classMetadata;
+        int numClasses = Math.min(metadata.size(), numFeatures - 4);
 
-            if (prediction.length < 5) continue;
+        CandidateBuffer candidates = candidateBuffer;
+        candidates.clear(numDetections);
 
-            // Extract bbox and class scores
-            float centerX = prediction[0];
-            float centerY = prediction[1];
-            float width = prediction[2];
-            float height = prediction[3];
+        // Step 1: Extract all detection candidates above confidence threshold and route
+        // them to the treasure / landmark index lists (extraction order kept)
+        for (int det = 0; det < numDetections; det++) {
+            int base = det * detStride;
 
             // Check all class scores
-            for (int classId = 0; classId < CLASS_NAMES.length; classId++) {
-                float classScore = prediction[4 + classId];
+            for (int classId = 0; classId < numClasses; classId++) {
+                float classScore = rawOutput.get(base + (4 + classId) * featStride);
 
                 if (classScore > confThreshold) {
-                    // Scale coordinates back to original image size
-                    float scaleX = (float) originalWidth / imgSize;
-                    float scaleY = (float) originalHeight / imgSize;
-
-                    float scaledCenterX = centerX * scaleX;
-                    float scaledCenterY = centerY * scaleY;
-                    float scaledWidth = width * scaleX;
-                    float scaledHeight = height * scaleY;
-
-                    candidates.add(new DetectionCandidate(
-                            scaledCenterX, scaledCenterY, scaledWidth, scaledHeight,
+                    candidates.add(
+                            rawOutput.get(base) * scaleX,
+                            rawOutput.get(base + featStride) * scaleY,
+                            rawOutput.get(base + 2 * featStride) * scaleX,
+                            rawOutput.get(base + 3 * featStride) * scaleY,
                             classScore, classId
-                    ));
+                    );
+
+                    byte group = metadata.getGroup(classId);
+                    if (group == ClassMetadata.GROUP_TREASURE) {
+                        candidates.treasureIndices[candidates.treasureCount++] = candidates.size - 1;
+                    } else if (group == ClassMetadata.GROUP_LANDMARK) {
+                        candidates.landmarkIndices[candidates.landmarkCount++] = candidates.size - 1;
+                    }
                 }
             }
         }
 
-        Log.i(TAG, String.format("Total detection candidates: %d", candidates.size()));
-
-        // Step 2: Separate treasure and landmark candidates
-        List<DetectionCandidate> treasureCandidates = new ArrayList<>();
-        List<DetectionCandidate> landmarkCandidates = new ArrayList<>();
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Total detection candidates: %d", candidates.size));
+        }
 
-        for (DetectionCandidate candidate : candidates) {
-            if (TREASURE_IDS.contains(candidate.classId)) {
-                treasureCandidates.add(candidate);
-            } else if (LANDMARK_IDS.contains(candidate.classId)) {
-                landmarkCandidates.add(candidate);
+        // Step 2: Keep only the top-K scores per group (NMS cost no longer depends on image quality)
+        if (candidates.treasureCount > maxCandidatesPerGroup || candidates.landmarkCount > maxCandidatesPerGroup) {
+            if (diagnosticsLevel != DiagnosticsLevel.OFF) {
+                Log.i(TAG, String.format("Capping candidates to top %d per group (treasure %d, landmark %d)",
+                        maxCandidatesPerGroup, candidates.treasureCount, candidates.landmarkCount));
             }
+            candidates.treasureCount = candidates.selectTopK(candidates.treasureIndices, candidates.treasureCount, maxCandidatesPerGroup);
+            candidates.landmarkCount = candidates.selectTopK(candidates.landmarkIndices, candidates.landmarkCount, maxCandidatesPerGroup);
         }
 
-        Log.i(TAG, String.format("Treasure candidates: %d, Landmark candidates: %d",
-                treasureCandidates.size(), landmarkCandidates.size()));
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Treasure candidates: %d, Landmark candidates: %d",
+                    candidates.treasureCount, candidates.landmarkCount));
+        }
+
+        if (diagnosticsLevel != DiagnosticsLevel.OFF) {
+            logDiagnosticsSummary(rawOutput, outputShape, numDetections, numFeatures,
+                    detStride, featStride, candidates);
+        }
 
         // Step 3: Apply image type constraints with intelligent NMS
-        return applyImageTypeConstraints(treasureCandidates, landmarkCandidates,
-                imgType, standardNmsThreshold, overlapNmsThreshold);
+        return applyImageTypeConstraints(candidates, metadata, imgType, standardNmsThreshold, overlapNmsThreshold);
     }
 
-    private EnhancedDetectionResult applyImageTypeConstraints(List<DetectionCandidate> treasureCandidates,
-                                                              List<DetectionCandidate> landmarkCandidates,
+    private EnhancedDetectionResult applyImageTypeConstraints(CandidateBuffer candidates,
+                                                              ClassMetadata metadata,
                                                               String imgType,
                                                               float standardNmsThreshold,
                                                               float overlapNmsThreshold) {
         List<FinalDetection> finalDetections = new ArrayList<>();
-        Map<Integer, Integer> treasureQuantities = new HashMap<>();
-        Map<Integer, Integer> landmarkQuantities = new HashMap<>();
-        Map<Integer, Integer> allQuantities = new HashMap<>();
+        int[] treasureCounts = new int[metadata.size()];
+        int[] landmarkCounts = new int[metadata.size()];
 
         if ("target".equals(imgType)) {
-            Log.i(TAG, "TARGET ITEM logic - applying STANDARD NMS");
+            if (isVerbose()) {
+                Log.i(TAG, "TARGET ITEM logic - applying STANDARD NMS");
+            }
 
             // Apply standard NMS to both treasures and landmarks
-            List<FinalDetection> treasureFinal = applyStandardNMS(treasureCandidates, standardNmsThreshold);
-            List<FinalDetection> landmarkFinal = applyStandardNMS(landmarkCandidates, standardNmsThreshold);
+            List<FinalDetection> treasureFinal = applyStandardNMS(candidates.treasureIndices, candidates.treasureCount, standardNmsThreshold);
+            List<FinalDetection> landmarkFinal = applyStandardNMS(candidates.landmarkIndices, candidates.landmarkCount, standardNmsThreshold);
 
             // Count quantities after NMS
-            countQuantities(treasureFinal, treasureQuantities, allQuantities);
-            countQuantities(landmarkFinal, landmarkQuantities, allQuantities);
+            countQuantities(treasureFinal, treasureCounts);
+            countQuantities(landmarkFinal, landmarkCounts);
 
             // Sort by confidence
             treasureFinal.sort((a, b) -> Float.compare(b.confidence, a.confidence));
@@ -326,16 +677,20 @@ public class YOLODetectionService {
             // Select exactly 1 treasure + 2 different landmark types
             if (!treasureFinal.isEmpty() && landmarkFinal.size() >= 2) {
                 finalDetections.add(treasureFinal.get(0));
-                Log.i(TAG, String.format("Selected treasure: %s (conf: %.3f)",
-                        CLASS_NAMES[treasureFinal.get(0).classId], treasureFinal.get(0).confidence));
+                if (isVerbose()) {
+                    Log.i(TAG, String.format("Selected treasure: %s (conf: %.3f)",
+                            getClassName(treasureFinal.get(0).classId), treasureFinal.get(0).confidence));
+                }
 
                 Set<Integer> selectedLandmarkClasses = new HashSet<>();
                 for (FinalDetection landmark : landmarkFinal) {
                     if (!selectedLandmarkClasses.contains(landmark.classId)) {
                         finalDetections.add(landmark);
                         selectedLandmarkClasses.add(landmark.classId);
-                        Log.i(TAG, String.format("Selected landmark: %s (conf: %.3f)",
-                                CLASS_NAMES[landmark.classId], landmark.confidence));
+                        if (isVerbose()) {
+                            Log.i(TAG, String.format("Selected landmark: %s (conf: %.3f)",
+                                    getClassName(landmark.classId), landmark.confidence));
+                        }
 
                         if (selectedLandmarkClasses.size() == 2) break;
                     }
@@ -343,240 +698,401 @@ public class YOLODetectionService {
             }
 
         } else if ("lost".equals(imgType)) {
-            Log.i(TAG, "LOST ITEM logic - applying INTELLIGENT NMS");
+            if (isVerbose()) {
+                Log.i(TAG, "LOST ITEM logic - applying INTELLIGENT NMS");
+            }
 
-            if (!treasureCandidates.isEmpty()) {
+            if (candidates.treasureCount > 0) {
                 // Case 1: 1 landmark + 1 treasure
-                Log.i(TAG, "Case 1: Treasure + Landmark detected");
+                if (isVerbose()) {
+                    Log.i(TAG, "Case 1: Treasure + Landmark detected");
+                }
 
-                List<FinalDetection> treasureFinal = applyStandardNMS(treasureCandidates, standardNmsThreshold);
-                List<FinalDetection> landmarkFinal = applyLandmarkIntelligentNMS(landmarkCandidates, overlapNmsThreshold);
+                List<FinalDetection> treasureFinal = applyStandardNMS(candidates.treasureIndices, candidates.treasureCount, standardNmsThreshold);
+                List<FinalDetection> landmarkFinal = applyLandmarkIntelligentNMS(candidates.landmarkIndices, candidates.landmarkCount, overlapNmsThreshold);
 
-                countQuantities(treasureFinal, treasureQuantities, allQuantities);
-                countQuantities(landmarkFinal, landmarkQuantities, allQuantities);
+                countQuantities(treasureFinal, treasureCounts);
+                countQuantities(landmarkFinal, landmarkCounts);
 
                 treasureFinal.sort((a, b) -> Float.compare(b.confidence, a.confidence));
                 landmarkFinal.sort((a, b) -> Float.compare(b.confidence, a.confidence));
 
                 if (!treasureFinal.isEmpty()) {
                     finalDetections.add(treasureFinal.get(0));
-                    Log.i(TAG, String.format("Selected treasure: %s (conf: %.3f)",
-                            CLASS_NAMES[treasureFinal.get(0).classId], treasureFinal.get(0).confidence));
+                    if (isVerbose()) {
+                        Log.i(TAG, String.format("Selected treasure: %s (conf: %.3f)",
+                                getClassName(treasureFinal.get(0).classId), treasureFinal.get(0).confidence));
+                    }
                 }
 
                 if (!landmarkFinal.isEmpty()) {
                     finalDetections.add(landmarkFinal.get(0));
-                    Log.i(TAG, String.format("Selected landmark: %s (conf: %.3f)",
-                            CLASS_NAMES[landmarkFinal.get(0).classId], landmarkFinal.get(0).confidence));
+                    if (isVerbose()) {
+                        Log.i(TAG, String.format("Selected landmark: %s (conf: %.3f)",
+                                getClassName(landmarkFinal.get(0).classId), landmarkFinal.get(0).confidence));
+                    }
                 }
 
             } else {
                 // Case 2: Only landmarks
-                Log.i(TAG, "Case 2: Only landmarks detected");
+                if (isVerbose()) {
+                    Log.i(TAG, "Case 2: Only landmarks detected");
+                }
 
-                List<FinalDetection> landmarkFinal = applyLandmarkIntelligentNMS(landmarkCandidates, overlapNmsThreshold);
-                countQuantities(landmarkFinal, landmarkQuantities, allQuantities);
+                List<FinalDetection> landmarkFinal = applyLandmarkIntelligentNMS(candidates.landmarkIndices, candidates.landmarkCount, overlapNmsThreshold);
+                countQuantities(landmarkFinal, landmarkCounts);
 
                 landmarkFinal.sort((a, b) -> Float.compare(b.confidence, a.confidence));
 
                 if (!landmarkFinal.isEmpty()) {
                     finalDetections.add(landmarkFinal.get(0));
-                    Log.i(TAG, String.format("Selected landmark: %s (conf: %.3f)",
-                            CLASS_NAMES[landmarkFinal.get(0).classId], landmarkFinal.get(0).confidence));
+                    if (isVerbose()) {
+                        Log.i(TAG, String.format("Selected landmark: %s (conf: %.3f)",
+                                getClassName(landmarkFinal.get(0).classId), landmarkFinal.get(0).confidence));
+                    }
                 }
             }
         }
 
-        return new EnhancedDetectionResult(finalDetections, allQuantities, treasureQuantities, landmarkQuantities);
+        return new EnhancedDetectionResult(finalDetections, treasureCounts, landmarkCounts, metadata);
     }
 
-    private List<FinalDetection> applyStandardNMS(List<DetectionCandidate> candidates, float nmsThreshold) {
-        if (candidates.size() <= 1) {
-            return convertToFinalDetections(candidates);
+    /**
+     * Standard NMS over candidate indices. Sorts indices in place by confidence
+     * (highest first, stable) and boxes only the survivors. Large candidate sets
+     * use the grid index of NmsEngine (same result as the all-pairs loop).
+     */
+    private List<FinalDetection> applyStandardNMS(int[] indices, int count, float nmsThreshold) {
+        CandidateBuffer candidates = candidateBuffer;
+        if (count <= 1) {
+            return convertToFinalDetections(indices, count);
         }
 
         // Sort by confidence
-        candidates.sort((a, b) -> Float.compare(b.confidence, a.confidence));
+        candidates.sortByConfidence(indices, count);
 
-        List<DetectionCandidate> kept = new ArrayList<>();
-        boolean[] suppressed = new boolean[candidates.size()];
+        int[] kept = candidates.keptIndices;
+        int keptCount = nmsEngine.suppress(candidates, indices, count, nmsThreshold, false, kept);
 
-        for (int i = 0; i < candidates.size(); i++) {
-            if (suppressed[i]) continue;
+        return convertToFinalDetections(kept, keptCount);
+    }
 
-            DetectionCandidate current = candidates.get(i);
-            kept.add(current);
+    private List<FinalDetection> applyLandmarkIntelligentNMS(int[] indices, int count, float overlapThreshold) {
+        CandidateBuffer candidates = candidateBuffer;
+        if (count <= 1) {
+            return convertToFinalDetections(indices, count);
+        }
 
-            for (int j = i + 1; j < candidates.size(); j++) {
-                if (suppressed[j]) continue;
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Applying intelligent NMS to %d landmark detections", count));
+        }
 
-                DetectionCandidate other = candidates.get(j);
-                if (calculateIoU(current, other) > nmsThreshold) {
-                    suppressed[j] = true;
-                }
+        // Find highest confidence detection and its class (first one wins on ties)
+        int highest = indices[0];
+        for (int i = 1; i < count; i++) {
+            if (candidates.confidence[indices[i]] > candidates.confidence[highest]) {
+                highest = indices[i];
             }
         }
 
-        return convertToFinalDetections(kept);
-    }
-
-    private List<FinalDetection> applyLandmarkIntelligentNMS(List<DetectionCandidate> candidates, float overlapThreshold) {
-        if (candidates.size() <= 1) {
-            return convertToFinalDetections(candidates);
+        int selectedClass = candidates.classId[highest];
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Selected class: %d (%s) with confidence: %.3f",
+                    selectedClass, getClassName(selectedClass), candidates.confidence[highest]));
         }
 
-        Log.i(TAG, String.format("Applying intelligent NMS to %d landmark detections", candidates.size()));
-
-        // Find highest confidence detection and its class
-        DetectionCandidate highest = candidates.stream()
-                .max(Comparator.comparingDouble(c -> c.confidence))
-                .orElse(null);
-
-        if (highest == null) return new ArrayList<>();
-
-        int selectedClass = highest.classId;
-        Log.i(TAG, String.format("Selected class: %d (%s) with confidence: %.3f",
-                selectedClass, CLASS_NAMES[selectedClass], highest.confidence));
-
         // Filter to only detections of the selected class
-        List<DetectionCandidate> sameClassCandidates = new ArrayList<>();
-        for (DetectionCandidate candidate : candidates) {
-            if (candidate.classId == selectedClass) {
-                sameClassCandidates.add(candidate);
+        int[] sameClassIndices = candidates.sameClassIndices;
+        int sameClassCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (candidates.classId[indices[i]] == selectedClass) {
+                sameClassIndices[sameClassCount++] = indices[i];
             }
         }
 
-        Log.i(TAG, String.format("Detections of selected class: %d/%d",
-                sameClassCandidates.size(), candidates.size()));
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Detections of selected class: %d/%d",
+                    sameClassCount, count));
+        }
 
         // Apply standard NMS with overlap threshold to same-class detections
-        List<FinalDetection> result = applyStandardNMS(sameClassCandidates, overlapThreshold);
+        List<FinalDetection> result = applyStandardNMS(sameClassIndices, sameClassCount, overlapThreshold);
 
-        Log.i(TAG, String.format("Landmarks kept after intelligent NMS: %d/%d of class %s",
-                result.size(), sameClassCandidates.size(), CLASS_NAMES[selectedClass]));
+        if (isVerbose()) {
+            Log.i(TAG, String.format("Landmarks kept after intelligent NMS: %d/%d of class %s",
+                    result.size(), sameClassCount, getClassName(selectedClass)));
+        }
 
         return result;
     }
 
-    private List<FinalDetection> convertToFinalDetections(List<DetectionCandidate> candidates) {
-        List<FinalDetection> result = new ArrayList<>();
-        for (DetectionCandidate candidate : candidates) {
-            result.add(new FinalDetection(
-                    candidate.centerX, candidate.centerY, candidate.width, candidate.height,
-                    candidate.confidence, candidate.classId
-            ));
+    /**
+     * Log one structured record with the output shape, candidate counts and the
+     * min/max of every feature across all detections (matches Python "Layer X: min=..., max=...")
+     */
+    private void logDiagnosticsSummary(FloatBuffer rawOutput, long[] outputShape,
+                                       int numDetections, int numFeatures,
+                                       int detStride, int featStride,
+                                       CandidateBuffer candidates) {
+        StringBuilder record = new StringBuilder(64 + numFeatures * 40);
+        record.append("YOLO diagnostics: shape=").append(Arrays.toString(outputShape))
+                .append(", candidates=").append(candidates.size)
+                .append(" (treasure=").append(candidates.treasureCount)
+                .append(", landmark=").append(candidates.landmarkCount)
+                .append("), layers={");
+
+        for (int featIdx = 0; featIdx < numFeatures; featIdx++) {
+            float minValue = Float.MAX_VALUE;
+            float maxValue = Float.MIN_VALUE;
+
+            for (int detIdx = 0; detIdx < numDetections; detIdx++) {
+                float value = rawOutput.get(detIdx * detStride + featIdx * featStride);
+                minValue = Math.min(minValue, value);
+                maxValue = Math.max(maxValue, value);
+            }
+
+            if (featIdx > 0) record.append(", ");
+            record.append(featIdx).append(": [")
+                    .append(String.format(Locale.US, "%.6f, %.6f", minValue, maxValue))
+                    .append(']');
+        }
+
+        Log.i(TAG, record.append('}').toString());
+    }
+
+    private List<FinalDetection> convertToFinalDetections(int[] indices, int count) {
+        List<FinalDetection> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(candidateBuffer.toFinalDetection(indices[i]));
         }
         return result;
     }
 
-    private void countQuantities(List<FinalDetection> detections,
-                                 Map<Integer, Integer> specificQuantities,
-                                 Map<Integer, Integer> allQuantities) {
+    private void countQuantities(List<FinalDetection> detections, int[] counts) {
         for (FinalDetection detection : detections) {
-            specificQuantities.put(detection.classId,
-                    specificQuantities.getOrDefault(detection.classId, 0) + 1);
-            allQuantities.put(detection.classId,
-                    allQuantities.getOrDefault(detection.classId, 0) + 1);
+            counts[detection.classId]++;
         }
     }
 
-    private float calculateIoU(DetectionCandidate a, DetectionCandidate b) {
-        float x1_a = a.centerX - a.width / 2;
-        float y1_a = a.centerY - a.height / 2;
-        float x2_a = a.centerX + a.width / 2;
-        float y2_a = a.centerY + a.height / 2;
-
-        float x1_b = b.centerX - b.width / 2;
-        float y1_b = b.centerY - b.height / 2;
-        float x2_b = b.centerX + b.width / 2;
-        float y2_b = b.centerY + b.height / 2;
+    /**
+     * @return Copy of the candidates decoded by the last detection (for NMS benchmarks)
+     */
+    synchronized CandidateBuffer copyLastCandidates() {
+        return candidateBuffer.copy();
+    }
 
-        float intersectionX1 = Math.max(x1_a, x1_b);
-        float intersectionY1 = Math.max(y1_a, y1_b);
-        float intersectionX2 = Math.min(x2_a, x2_b);
-        float intersectionY2 = Math.min(y2_a, y2_b);
+    public synchronized void close() {
+        try {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+            isInitialized = false;
+            if (env != null) {
+                env.close();
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error closing YOLO service: " + e.getMessage(), e);
+        }
+    }
 
-        if (intersectionX2 <= intersectionX1 || intersectionY2 <= intersectionY1) {
-            return 0.0f;
+    // Helper classes
+    /**
+     * Structure-of-arrays store for detection candidates, reused across inferences.
+     * Starts at one slot per anchor (2100) and only grows if more (anchor, class)
+     * pairs pass the threshold. Also holds the index scratch arrays used by NMS.
+     * Corners and area are computed once at decode time for the IoU kernel.
+     */
+    static final class CandidateBuffer {
+        float[] centerX, centerY, width, height;
+        float[] x1, y1, x2, y2, area;
+        float[] confidence;
+        int[] classId;
+        int size;
+
+        int[] treasureIndices, landmarkIndices;
+        int treasureCount, landmarkCount;
+
+        // NMS scratch
+        int[] keptIndices, sameClassIndices, sortScratch, heap;
+        long[] sortKeys;
+
+        CandidateBuffer(int capacity) {
+            allocate(capacity);
         }
 
-        float intersectionArea = (intersectionX2 - intersectionX1) * (intersectionY2 - intersectionY1);
-        float areaA = a.width * a.height;
-        float areaB = b.width * b.height;
-        float unionArea = areaA + areaB - intersectionArea;
+        private void allocate(int capacity) {
+            centerX = Arrays.copyOf(centerX != null ? centerX : new float[0], capacity);
+            centerY = Arrays.copyOf(centerY != null ? centerY : new float[0], capacity);
+            width = Arrays.copyOf(width != null ? width : new float[0], capacity);
+            height = Arrays.copyOf(height != null ? height : new float[0], capacity);
+            x1 = Arrays.copyOf(x1 != null ? x1 : new float[0], capacity);
+            y1 = Arrays.copyOf(y1 != null ? y1 : new float[0], capacity);
+            x2 = Arrays.copyOf(x2 != null ? x2 : new float[0], capacity);
+            y2 = Arrays.copyOf(y2 != null ? y2 : new float[0], capacity);
+            area = Arrays.copyOf(area != null ? area : new float[0], capacity);
+            confidence = Arrays.copyOf(confidence != null ? confidence : new float[0], capacity);
+            classId = Arrays.copyOf(classId != null ? classId : new int[0], capacity);
+
+            treasureIndices = Arrays.copyOf(treasureIndices != null ? treasureIndices : new int[0], capacity);
+            landmarkIndices = Arrays.copyOf(landmarkIndices != null ? landmarkIndices : new int[0], capacity);
+            keptIndices = new int[capacity];
+            sameClassIndices = new int[capacity];
+            sortScratch = new int[capacity];
+            heap = new int[capacity];
+            sortKeys = new long[capacity];
+        }
 
-        return intersectionArea / unionArea;
-    }
+        void clear(int minCapacity) {
+            if (classId.length < minCapacity) {
+                allocate(minCapacity);
+            }
+            size = 0;
+            treasureCount = 0;
+            landmarkCount = 0;
+        }
 
-    private Mat preprocessImage(Mat image) {
-        Mat processedImage = new Mat();
+        void add(float cx, float cy, float w, float h, float score, int cls) {
+            if (size == classId.length) {
+                allocate(size * 2);
+            }
+            centerX[size] = cx;
+            centerY[size] = cy;
+            width[size] = w;
+            height[size] = h;
+            x1[size] = cx - w / 2;
+            y1[size] = cy - h / 2;
+            x2[size] = cx + w / 2;
+            y2[size] = cy + h / 2;
+            area[size] = w * h;
+            confidence[size] = score;
+            classId[size] = cls;
+            size++;
+        }
 
-        // Convert to RGB if needed
-        if (image.channels() == 1) {
-            Imgproc.cvtColor(image, processedImage, Imgproc.COLOR_GRAY2RGB);
-        } else if (image.channels() == 4) {
-            Imgproc.cvtColor(image, processedImage, Imgproc.COLOR_BGRA2RGB);
-        } else if (image.channels() == 3) {
-            Imgproc.cvtColor(image, processedImage, Imgproc.COLOR_BGR2RGB);
-        } else {
-            image.copyTo(processedImage);
+        /**
+         * Sort indices[0..count) by confidence, highest first. Ties keep their current
+         * order, matching the stable List.sort used before. Scores are positive, so their
+         * raw float bits sort like the values and can be packed into one long key.
+         */
+        void sortByConfidence(int[] indices, int count) {
+            for (int i = 0; i < count; i++) {
+                int scoreBits = Float.floatToIntBits(confidence[indices[i]]);
+                sortKeys[i] = ((long) (Integer.MAX_VALUE - scoreBits) << 32) | i;
+            }
+            Arrays.sort(sortKeys, 0, count);
+            for (int i = 0; i < count; i++) {
+                sortScratch[i] = indices[(int) sortKeys[i]];
+            }
+            System.arraycopy(sortScratch, 0, indices, 0, count);
         }
 
-        // Resize to model input size
-        Mat resizedImage = new Mat();
-        Imgproc.resize(processedImage, resizedImage, new Size(INPUT_SIZE, INPUT_SIZE));
+        /**
+         * Keep the k highest-confidence entries of indices[0..count) in their original order.
+         * Uses a min-heap of size k whose root is the weakest kept entry; on equal scores the
+         * later entry is weaker, matching the stable sort used by NMS.
+         * @return New count (min(count, k))
+         */
+        int selectTopK(int[] indices, int count, int k) {
+            if (count <= k) {
+                return count;
+            }
 
-        processedImage.release();
-        return resizedImage;
-    }
+            int heapSize = 0;
+            for (int i = 0; i < count; i++) {
+                int candidate = indices[i];
+                if (heapSize < k) {
+                    heap[heapSize] = candidate;
+                    siftUp(heapSize++);
+                } else if (isWeaker(heap[0], candidate)) {
+                    heap[0] = candidate;
+                    siftDown(0, heapSize);
+                }
+            }
 
-    private float[][][][] matToFloatArray(Mat image) {
-        float[][][][] inputData = new float[1][3][INPUT_SIZE][INPUT_SIZE];
+            // Candidate indices grow with extraction order, so sorting restores it
+            System.arraycopy(heap, 0, indices, 0, k);
+            Arrays.sort(indices, 0, k);
+            return k;
+        }
 
-        for (int y = 0; y < INPUT_SIZE; y++) {
-            for (int x = 0; x < INPUT_SIZE; x++) {
-                double[] pixel = image.get(y, x);
+        /**
+         * @return true if candidate a ranks below candidate b (lower score, or same score and later)
+         */
+        private boolean isWeaker(int a, int b) {
+            return confidence[a] < confidence[b] || (confidence[a] == confidence[b] && a > b);
+        }
 
-                // Normalize to [0, 1]
-                inputData[0][0][y][x] = (float) (pixel[0] / 255.0);
-                inputData[0][1][y][x] = (float) (pixel[1] / 255.0);
-                inputData[0][2][y][x] = (float) (pixel[2] / 255.0);
+        private void siftUp(int i) {
+            int entry = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!isWeaker(entry, heap[parent])) break;
+                heap[i] = heap[parent];
+                i = parent;
             }
+            heap[i] = entry;
         }
 
-        return inputData;
-    }
-
-    public void close() {
-        try {
-            if (session != null) {
-                session.close();
+        private void siftDown(int i, int size) {
+            int entry = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && isWeaker(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!isWeaker(heap[child], entry)) break;
+                heap[i] = heap[child];
+                i = child;
             }
-            if (env != null) {
-                env.close();
+            heap[i] = entry;
+        }
+
+        /**
+         * Copy of the first size candidates (for benchmarks; scratch arrays are fresh)
+         */
+        CandidateBuffer copy() {
+            CandidateBuffer copy = new CandidateBuffer(Math.max(1, size));
+            for (int i = 0; i < size; i++) {
+                copy.add(centerX[i], centerY[i], width[i], height[i], confidence[i], classId[i]);
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error closing YOLO service: " + e.getMessage(), e);
+            return copy;
+        }
+
+        FinalDetection toFinalDetection(int i) {
+            return new FinalDetection(centerX[i], centerY[i], width[i], height[i],
+                    confidence[i], classId[i]);
         }
     }
 
-    // Helper classes
-    public static class DetectionCandidate {
-        public final float centerX, centerY, width, height;
-        public final float confidence;
-        public final int classId;
+    /**
+     * Model precision variants. Quantized files are produced by quantize_onnx.py and keep
+     * float32 inputs/outputs, so preprocessing and post-processing are shared by all of them.
+     */
+    public enum ModelVariant {
+        FP32(MODEL_NAME),
+        FP16("yolo_v8n_400_fp16.onnx"),
+        INT8_DYNAMIC("yolo_v8n_400_int8_dynamic.onnx"),
+        INT8_STATIC("yolo_v8n_400_int8_static.onnx");
 
-        public DetectionCandidate(float centerX, float centerY, float width, float height,
-                                  float confidence, int classId) {
-            this.centerX = centerX;
-            this.centerY = centerY;
-            this.width = width;
-            this.height = height;
-            this.confidence = confidence;
-            this.classId = classId;
+        private final String assetName;
+
+        ModelVariant(String assetName) {
+            this.assetName = assetName;
+        }
+
+        public String getAssetName() {
+            return assetName;
         }
     }
 
+    public enum DiagnosticsLevel {
+        OFF,
+        SUMMARY,
+        VERBOSE
+    }
+
     public static class FinalDetection {
         public final float centerX, centerY, width, height;
         public final float confidence;
@@ -595,68 +1111,152 @@ public class YOLODetectionService {
         @Override
         public String toString() {
             return String.format("Detection[class=%s, conf=%.2f, center=(%.1f,%.1f), size=(%.1f,%.1f)]",
-                    CLASS_NAMES[classId], confidence, centerX, centerY, width, height);
+                    getClassName(classId), confidence, centerX, centerY, width, height);
         }
     }
 
+    /**
+     * Detection result with per-class counts kept in int arrays indexed by class ID.
+     * The map views (class ID or class name keyed) are built on first use and cached; they
+     * are read-only, so callers that modify a map copy it first.
+     */
     public static class EnhancedDetectionResult {
-        private List<FinalDetection> detections;
+        private static final int[] NO_COUNTS = new int[0];
+
+        private final List<FinalDetection> detections;
+        private final int[] treasureCounts;
+        private final int[] landmarkCounts;
+        private final ClassMetadata classMetadata;
+
+        // Lazily built views
         private Map<Integer, Integer> allQuantities;
         private Map<Integer, Integer> treasureQuantities;
         private Map<Integer, Integer> landmarkQuantities;
+        private Map<String, Object> pythonLikeResult;
 
         public EnhancedDetectionResult() {
-            this.detections = new ArrayList<>();
-            this.allQuantities = new HashMap<>();
-            this.treasureQuantities = new HashMap<>();
-            this.landmarkQuantities = new HashMap<>();
+            this(new ArrayList<FinalDetection>(), NO_COUNTS, NO_COUNTS, YOLODetectionService.classMetadata);
         }
 
+        /**
+         * @param detections Selected detections
+         * @param treasureCounts Treasure count per class ID (after NMS)
+         * @param landmarkCounts Landmark count per class ID (after NMS)
+         * @param classMetadata Class table of the model
+         */
         public EnhancedDetectionResult(List<FinalDetection> detections,
-                                       Map<Integer, Integer> allQuantities,
-                                       Map<Integer, Integer> treasureQuantities,
-                                       Map<Integer, Integer> landmarkQuantities) {
+                                       int[] treasureCounts,
+                                       int[] landmarkCounts,
+                                       ClassMetadata classMetadata) {
             this.detections = detections;
-            this.allQuantities = allQuantities;
-            this.treasureQuantities = treasureQuantities;
-            this.landmarkQuantities = landmarkQuantities;
+            this.treasureCounts = treasureCounts;
+            this.landmarkCounts = landmarkCounts;
+            this.classMetadata = classMetadata;
         }
 
         public List<FinalDetection> getDetections() { return detections; }
-        public Map<Integer, Integer> getAllQuantities() { return allQuantities; }
-        public Map<Integer, Integer> getTreasureQuantities() { return treasureQuantities; }
-        public Map<Integer, Integer> getLandmarkQuantities() { return landmarkQuantities; }
+        public ClassMetadata getClassMetadata() { return classMetadata; }
 
         /**
-         * Get result in Python-like format
-         * @return Map containing quantities with class names as keys
+         * @return Length of the count arrays (number of model classes, 0 for an empty result)
+         */
+        public int getNumClasses() {
+            return Math.max(treasureCounts.length, landmarkCounts.length);
+        }
+
+        /**
+         * @param classId Class ID
+         * @return Treasure count of the class (0 if none or invalid ID)
+         */
+        public int getTreasureCount(int classId) {
+            return countAt(treasureCounts, classId);
+        }
+
+        /**
+         * @param classId Class ID
+         * @return Landmark count of the class (0 if none or invalid ID)
          */
-        public Map<String, Object> getPythonLikeResult() {
-            Map<String, Object> result = new HashMap<>();
+        public int getLandmarkCount(int classId) {
+            return countAt(landmarkCounts, classId);
+        }
+
+        /**
+         * @param classId Class ID
+         * @return Treasure + landmark count of the class
+         */
+        public int getCount(int classId) {
+            return getTreasureCount(classId) + getLandmarkCount(classId);
+        }
 
-            // Convert all quantities to use class names
-            Map<String, Integer> allQuantitiesNamed = new HashMap<>();
-            for (Map.Entry<Integer, Integer> entry : allQuantities.entrySet()) {
-                allQuantitiesNamed.put(CLASS_NAMES[entry.getKey()], entry.getValue());
+        private static int countAt(int[] counts, int classId) {
+            return classId >= 0 && classId < counts.length ? counts[classId] : 0;
+        }
+
+        public synchronized Map<Integer, Integer> getAllQuantities() {
+            if (allQuantities == null) {
+                allQuantities = toIdMap(null);
+            }
+            return allQuantities;
+        }
+
+        public synchronized Map<Integer, Integer> getTreasureQuantities() {
+            if (treasureQuantities == null) {
+                treasureQuantities = toIdMap(treasureCounts);
             }
+            return treasureQuantities;
+        }
 
-            // Convert treasure quantities to use class names
-            Map<String, Integer> treasureQuantitiesNamed = new HashMap<>();
-            for (Map.Entry<Integer, Integer> entry : treasureQuantities.entrySet()) {
-                treasureQuantitiesNamed.put(CLASS_NAMES[entry.getKey()], entry.getValue());
+        public synchronized Map<Integer, Integer> getLandmarkQuantities() {
+            if (landmarkQuantities == null) {
+                landmarkQuantities = toIdMap(landmarkCounts);
             }
+            return landmarkQuantities;
+        }
 
-            // Convert landmark quantities to use class names
-            Map<String, Integer> landmarkQuantitiesNamed = new HashMap<>();
-            for (Map.Entry<Integer, Integer> entry : landmarkQuantities.entrySet()) {
-                landmarkQuantitiesNamed.put(CLASS_NAMES[entry.getKey()], entry.getValue());
+        /**
+         * Get result in Python-like format (names from the model's class table).
+         * Built once per result; the maps are read-only.
+         * @return Map containing quantities with class names as keys
+         */
+        public synchronized Map<String, Object> getPythonLikeResult() {
+            if (pythonLikeResult == null) {
+                Map<String, Object> result = new HashMap<>();
+                result.put("all_quantities", toNameMap(null));
+                result.put("treasure_quantities", toNameMap(treasureCounts));
+                result.put("landmark_quantities", toNameMap(landmarkCounts));
+                pythonLikeResult = Collections.unmodifiableMap(result);
             }
+            return pythonLikeResult;
+        }
 
-            result.put("all_quantities", allQuantitiesNamed);
-            result.put("treasure_quantities", treasureQuantitiesNamed);
-            result.put("landmark_quantities", landmarkQuantitiesNamed);
+        /**
+         * @param counts Counts to convert, or null for treasure + landmark
+         * @return Counts by class ID, in class ID order
+         */
+        private Map<Integer, Integer> toIdMap(int[] counts) {
+            Map<Integer, Integer> map = new LinkedHashMap<>();
+            for (int classId = 0; classId < getNumClasses(); classId++) {
+                int count = counts != null ? countAt(counts, classId) : getCount(classId);
+                if (count > 0) {
+                    map.put(classId, count);
+                }
+            }
+            return Collections.unmodifiableMap(map);
+        }
 
-            return result;
+        /**
+         * @param counts Counts to convert, or null for treasure + landmark
+         * @return Counts by class name, in class ID order
+         */
+        private Map<String, Integer> toNameMap(int[] counts) {
+            Map<String, Integer> map = new LinkedHashMap<>();
+            for (int classId = 0; classId < getNumClasses(); classId++) {
+                int count = counts != null ? countAt(counts, classId) : getCount(classId);
+                if (count > 0) {
+                    map.put(classMetadata.getName(classId), count);
+                }
+            }
+            return Collections.unmodifiableMap(map);
         }
 
         public void logResults(String tag) {
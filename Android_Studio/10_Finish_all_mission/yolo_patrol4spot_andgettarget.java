@@ -11,6 +11,7 @@ import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.HashSet;
 
@@ -256,6 +257,13 @@ public class YourService extends KiboRpcService {
         // write your plan 3 here.
     }
 
+    @Override
+    public void onDestroy() {
+        // Release the shared YOLO detector together with the service
+        YOLODetectionService.releaseInstance();
+        super.onDestroy();
+    }
+
     /**
      * Process target image to identify the treasure type the astronaut is holding
      * @param targetImage Image from astronaut
@@ -370,12 +378,11 @@ public class YourService extends KiboRpcService {
      */
     private Object[] detectitemfromcvimg(Mat image, float conf, String imgtype,
                                          float standard_nms_threshold, float overlap_nms_threshold, int img_size) {
-        YOLODetectionService yoloService = null;
         try {
             Log.i(TAG, String.format("Starting YOLO detection - type: %s, conf: %.2f", imgtype, conf));
 
-            // Initialize YOLO detection service
-            yoloService = new YOLODetectionService(this);
+            // Shared YOLO detection service (model loaded once, released in onDestroy)
+            YOLODetectionService yoloService = YOLODetectionService.getInstance(this);
 
             // Call detection with all parameters (matches Python simple_detection_example)
             YOLODetectionService.EnhancedDetectionResult result = yoloService.DetectfromcvImage(
@@ -386,9 +393,12 @@ public class YourService extends KiboRpcService {
             Map<String, Object> pythonResult = result.getPythonLikeResult();
 
             // Extract landmark quantities (Map<String, Integer>) - matches Python detection['landmark_quantities']
+            // Copied: the result's maps are read-only and callers may modify the returned map
             Map<String, Integer> landmarkQuantities = (Map<String, Integer>) pythonResult.get("landmark_quantities");
             if (landmarkQuantities == null) {
                 landmarkQuantities = new HashMap<>();
+            } else {
+                landmarkQuantities = new LinkedHashMap<>(landmarkQuantities);
             }
 
             // Extract treasure quantities and get the keys (types) - matches Python detection['treasure_quantities'].keys()
@@ -411,11 +421,6 @@ public class YourService extends KiboRpcService {
             Log.e(TAG, "Error in detectitemfromcvimg: " + e.getMessage(), e);
             // Return empty results on error
             return new Object[]{new HashMap<String, Integer>(), new HashSet<String>()};
-        } finally {
-            // Clean up YOLO service
-            if (yoloService != null) {
-                yoloService.close();
-            }
         }
     }
 
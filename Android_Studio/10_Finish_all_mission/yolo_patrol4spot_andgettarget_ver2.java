@@ -13,23 +13,62 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // OpenCV imports
-import org.opencv.aruco.Dictionary;
 import org.opencv.aruco.Aruco;
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.calib3d.Calib3d;
-import org.opencv.imgproc.CLAHE;
 
 public class YourService extends KiboRpcService {
 
     private final String TAG = this.getClass().getSimpleName();
 
+    // Longest we wait for one area's vision result before reporting it as unknown
+    private static final long AREA_VISION_TIMEOUT_MS = 30000;
+
+    // Longest we wait for the vision worker to stop before the target image is processed
+    private static final long VISION_SHUTDOWN_TIMEOUT_MS = 2000;
+
+    // Multi-frame voting per area: most frames captured at each area, spacing between them,
+    // and the confidence two frames need to agree on for an early exit (no further capture)
+    private static final int FRAMES_PER_AREA = 3;
+    private static final long FRAME_INTERVAL_MS = 100;
+    private static final float VOTE_AGREE_CONFIDENCE = 0.6f;
+
     // Instance variables to store detection results across areas
     private Set<String> foundTreasures = new HashSet<>();
     private Set<String> foundLandmarks = new HashSet<>();  // Add this line
-    private Map<String, Map<String, Integer>> areaLandmarks = new HashMap<>();
+    private Map<Integer, AreaDetection> areaDetections = new HashMap<>();
+
+    // Waits for the robot to settle after a move (replaces fixed sleeps)
+    private SettleDetector settleDetector;
+
+    // Dictionary, detector parameters, intrinsics and marker buffers shared by all ArUco searches
+    // (passed to the vision worker through cropWarpEngine, which holds it)
+    private ArucoContext arucoContext;
+
+    // Background writer for debug images (OFF / FINAL_ONLY / FULL)
+    private DebugImageSink debugImageSink;
+
+    // Undistort + crop lookup tables, cached per marker pose
+    private CropWarpEngine cropWarpEngine;
+
+    // true: warp straight to the YOLO input size and apply CLAHE in place (one image per area)
+    // false: warp to cropWarpSize, resize, then CLAHE (two-stage path, kept for parity checks)
+    private boolean singlePassCrop = true;
+
+    // Contrast enhancers (CLAHE etc.), created once per parameter set
+    private final EnhancerRegistry enhancerRegistry = new EnhancerRegistry();
 
 
     // Area coordinates and orientations for all 4 areas 
@@ -47,13 +86,41 @@ public class YourService extends KiboRpcService {
             new Quaternion(0f, 0f, 1f, 0f)           // Area 4
     };
 
+    // Expected ArUco marker center in the 1280x960 NavCam image at the poses above
+    // (from simulator DebugImages); used as the first search region for marker detection
+    private final org.opencv.core.Point[] AREA_MARKER_PIXELS = {
+            new org.opencv.core.Point(778, 425),  // Astronaut target (area ID 0)
+            new org.opencv.core.Point(735, 550),  // Area 1
+            new org.opencv.core.Point(790, 635),  // Area 2
+            new org.opencv.core.Point(605, 828),  // Area 3
+            new org.opencv.core.Point(335, 570)   // Area 4
+    };
+
+    // Crop area corners in marker coordinates (manually adjusted)
+    private final Point3[] CROP_CORNERS_3D = {
+            new Point3(-0.0265, 0.0420, 0),    // Top-left
+            new Point3(-0.2385, 0.0420, 0),    // Top-right
+            new Point3(-0.2385, -0.1170, 0),   // Bottom-right
+            new Point3(-0.0265, -0.1170, 0)    // Bottom-left
+    };
+
     @Override
     protected void runPlan1(){
         // Log the start of the mission.
         Log.i(TAG, "Start mission");
 
+        // Start loading the YOLO model in the background so it is ready by the first area
+        YOLODetectionService.getInstance(this).warmUpAsync();
+
         // The mission starts.
         api.startMission();
+        settleDetector = new SettleDetector(api);
+        debugImageSink = new DebugImageSink(api, DebugImageSink.Mode.OFF);
+        arucoContext = new ArucoContext(api.getNavCamIntrinsics());
+        for (int areaId = 0; areaId < AREA_MARKER_PIXELS.length; areaId++) {
+            arucoContext.setPredictedCenter(areaId, AREA_MARKER_PIXELS[areaId]);
+        }
+        cropWarpEngine = new CropWarpEngine(arucoContext, CROP_CORNERS_3D);
 
         // Initialize area treasure tracking
         Map<Integer, Set<String>> areaTreasure = new HashMap<>();
@@ -69,12 +136,17 @@ public class YourService extends KiboRpcService {
         Size resizeSize = new Size(320, 320);     // Size for final processing
 
         // ========================================================================
-        // PROCESS ALL 4 AREAS
+        // PROCESS ALL 4 AREAS (PIPELINED)
         // ========================================================================
 
+        // Vision for area N runs on a background worker while the robot moves to area N+1.
+        // A single worker keeps areas processed in order; results are reported in area order.
+        ExecutorService visionExecutor = Executors.newSingleThreadExecutor();
+        LinkedHashMap<Integer, AreaVisionTask> pendingAreas = new LinkedHashMap<>();
+
         // Loop through all 4 areas
         for (int areaIndex = 0; areaIndex < 4; areaIndex++) {
-            int areaId = areaIndex + 1; // Area IDs are 1, 2, 3, 4
+            final int areaId = areaIndex + 1; // Area IDs are 1, 2, 3, 4
 
             Log.i(TAG, "=== Processing Area " + areaId + " ===");
 
@@ -87,84 +159,45 @@ public class YourService extends KiboRpcService {
 
             api.moveTo(targetPoint, targetQuaternion, false);
 
-            // Get a camera image
-            Mat image = api.getMatNavCam();
-
-            // Process the image for this area
-            Mat claHeBinImage = imageEnhanceAndCrop(image, cropWarpSize, resizeSize, areaId);
-
-            // Initialize detection results for this area
-            Map<String, Integer> landmark_items = new HashMap<>();
-            Set<String> treasure_types = new HashSet<>();
-
-            if (claHeBinImage != null) {
-                Log.i(TAG, "Area " + areaId + ": Image enhancement and cropping successful");
-
-                // Detect items using YOLO
-                Object[] detected_items = detectitemfromcvimg(
-                        claHeBinImage,
-                        0.5f,      // conf_threshold
-                        "lost",    // img_type ("lost" or "target")
-                        0.45f,     // standard_nms_threshold
-                        0.8f,      // overlap_nms_threshold
-                        320        // img_size
-                );
-
-                // Extract results
-                landmark_items = (Map<String, Integer>) detected_items[0];
-                treasure_types = (Set<String>) detected_items[1];
-
-                Log.i(TAG, "Area " + areaId + " - Landmark quantities: " + landmark_items);
-                Log.i(TAG, "Area " + areaId + " - Treasure types: " + treasure_types);
-
-                // Store results for later use
-                areaLandmarks.put("area" + areaId, landmark_items);
-                foundTreasures.addAll(treasure_types);
-
-                // Add this line to store landmark types
-                foundLandmarks.addAll(landmark_items.keySet());
-
-                // Store treasure types for this area
-                areaTreasure.get(areaId).addAll(treasure_types);
-
-                Log.i(TAG, "Area " + areaId + " treasure types: " + areaTreasure.get(areaId));
+            // Start the vision worker on this area, then hand it frames as they are captured
+            // (the worker releases them) until its vote settles
+            AreaVisionTask task = new AreaVisionTask(areaId, cropWarpSize, resizeSize, cropWarpEngine);
+            task.future = visionExecutor.submit(task);
+            pendingAreas.put(areaId, task);
+            captureAreaFrames(task.frames, FRAMES_PER_AREA);
 
-                // Clean up the processed image
-                claHeBinImage.release();
-            } else {
-                Log.w(TAG, "Area " + areaId + ": Image enhancement failed - no markers detected or processing error");
-            }
-
-            // Clean up original image
-            image.release();
+            // Report areas whose vision already finished while we were moving
+            reportFinishedAreas(pendingAreas, areaTreasure, false);
+        }
 
-            // ========================================================================
-            // SET AREA INFO FOR THIS AREA
-            // ========================================================================
+        // ========================================================================
+        // ASTRONAUT INTERACTION
+        // ========================================================================
 
-            // Use the detected landmark items for area info
-            String[] firstLandmark = getFirstLandmarkItem(landmark_items);
-            if (firstLandmark != null) {
-                String currentlandmark_items = firstLandmark[0];
-                int landmarkCount = Integer.parseInt(firstLandmark[1]);
+        // Move to the front of the astronaut and report rounding completion
+        Point astronautPoint = new Point(11.143d, -6.7607d, 4.9654d);
+        Quaternion astronautQuaternion = new Quaternion(0f, 0f, 0.707f, 0.707f);
 
-                // Set the area info with detected landmarks
-                api.setAreaInfo(areaId, currentlandmark_items, landmarkCount);
-                Log.i(TAG, String.format("Area %d: %s x %d", areaId, currentlandmark_items, landmarkCount));
-            } else {
-                Log.w(TAG, "Area " + areaId + ": No landmark items detected");
-                // Set default if no detection
-                api.setAreaInfo(areaId, "unknown", 0);
-            }
+        Log.i(TAG, "Moving to astronaut position");
+        api.moveTo(astronautPoint, astronautQuaternion, false);
 
-            // Short delay between areas to ensure stability
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Sleep interrupted");
-            }
+        // Vision for the last area overlapped the move above; wait for anything still pending
+        reportFinishedAreas(pendingAreas, areaTreasure, true);
+
+        // The target image below uses the ArUco context and crop tables too. A worker that
+        // ignored cancellation (stuck in native code) keeps the shared ones; the target then
+        // gets its own and the shared ones are never released under the worker.
+        boolean workerStopped = stopVisionWorker(visionExecutor);
+        CropWarpEngine targetWarpEngine = cropWarpEngine;
+        if (!workerStopped) {
+            Log.w(TAG, "Vision worker still running - target uses its own ArUco context and crop tables");
+            ArucoContext targetArucoContext = new ArucoContext(api.getNavCamIntrinsics());
+            targetArucoContext.setPredictedCenter(0, AREA_MARKER_PIXELS[0]);
+            targetWarpEngine = new CropWarpEngine(targetArucoContext, CROP_CORNERS_3D);
         }
 
+        api.reportRoundingCompletion();
+
         // ========================================================================
         // LOG SUMMARY OF ALL AREAS
         // ========================================================================
@@ -172,25 +205,14 @@ public class YourService extends KiboRpcService {
         Log.i(TAG, "=== AREA PROCESSING SUMMARY ===");
         for (int i = 1; i <= 4; i++) {
             Log.i(TAG, "Area " + i + " treasures: " + areaTreasure.get(i));
-            Log.i(TAG, "Area " + i + " landmarks: " + areaLandmarks.get("area" + i));
+            AreaDetection detection = areaDetections.get(i);
+            Log.i(TAG, "Area " + i + " landmarks: " + (detection != null ? detection.getLandmarkQuantities() : "{}"));
         }
         Log.i(TAG, "All found treasures: " + foundTreasures);
         Log.i(TAG, "All found landmarks: " + foundLandmarks);  // Add this line
 
-        // ========================================================================
-        // ASTRONAUT INTERACTION
-        // ========================================================================
-
-        // Move to the front of the astronaut and report rounding completion
-        Point astronautPoint = new Point(11.143d, -6.7607d, 4.9654d);
-        Quaternion astronautQuaternion = new Quaternion(0f, 0f, 0.707f, 0.707f);
-
-        Log.i(TAG, "Moving to astronaut position");
-        api.moveTo(astronautPoint, astronautQuaternion, false);
-        api.reportRoundingCompletion();
-
         // Error handling verify markers are visible before proceeding
-        boolean astronautMarkersOk = waitForMarkersDetection(2000, 200, "astronaut");
+        boolean astronautMarkersOk = waitForMarkersDetection(2000, "astronaut", targetWarpEngine.getArucoContext());
 
         if (astronautMarkersOk) {
             Log.i(TAG, "Astronaut markers confirmed - proceeding with target detection");
@@ -206,7 +228,7 @@ public class YourService extends KiboRpcService {
         Mat targetImage = api.getMatNavCam();
 
         // Process target image to identify what the astronaut is holding
-        String targetTreasureType = processTargetImage(targetImage, resizeSize);
+        String targetTreasureType = processTargetImage(targetImage, resizeSize, targetWarpEngine);
 
         if (targetTreasureType != null && !targetTreasureType.equals("unknown")) {
             Log.i(TAG, "Target treasure identified: " + targetTreasureType);
@@ -244,6 +266,21 @@ public class YourService extends KiboRpcService {
 
         // Clean up target image
         targetImage.release();
+
+        // Release the ArUco contexts (never under a running worker) and flush pending debug images
+        targetWarpEngine.release();
+        targetWarpEngine.getArucoContext().release();
+        if (!workerStopped) {
+            Log.w(TAG, "Shared ArUco context and crop tables left to the vision worker");
+        }
+        debugImageSink.close(2000);
+    }
+
+    @Override
+    public void onDestroy() {
+        // Release the shared YOLO detector together with the service
+        YOLODetectionService.releaseInstance();
+        super.onDestroy();
     }
 
     @Override
@@ -256,29 +293,253 @@ public class YourService extends KiboRpcService {
         // write your plan 3 here.
     }
 
+    /**
+     * Capture frames of the current area while the robot is still there and hand them to
+     * the vision worker. Between frames we wait for the worker's vote instead of sleeping,
+     * so capture stops as soon as two frames agree.
+     * @param frames Queue read by the vision worker (input closed here)
+     * @param maxFrames Most frames to capture (the first one after settling)
+     */
+    private void captureAreaFrames(AreaFrameQueue frames, int maxFrames) {
+        try {
+            Mat first = settleDetector.waitForStableFrame();
+            if (first == null) {
+                return;
+            }
+            frames.add(first);
+
+            for (int i = 1; i < maxFrames; i++) {
+                if (frames.awaitSettled(FRAME_INTERVAL_MS)) {
+                    Log.i(TAG, String.format("Vote settled after %d frames - capture stopped", i));
+                    break;
+                }
+                Mat frame = api.getMatNavCam();
+                if (frame != null) {
+                    frames.add(frame);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Frame capture interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            frames.closeInput();
+        }
+    }
+
+    /**
+     * Run the vision pipeline for one area (ArUco crop + CLAHE + YOLO) on its frames and
+     * vote on the result. The first two frames are detected together (one batched call when
+     * the model supports it); further frames are only processed until two confident frames
+     * agree, which also tells the mission thread to stop capturing.
+     * Runs on the vision worker thread, so it only computes and does not touch mission state.
+     * @param frames Frames of the area as they are captured (released here)
+     * @param cropWarpSize Size for the cropped/warped image
+     * @param resizeSize Size for the final processed image
+     * @param areaId Area identifier (1-4)
+     * @param warpEngine Crop tables and ArUco context of the worker
+     * @return Voted detection result for the area (empty if no frame could be processed)
+     */
+    private AreaDetection processArea(AreaFrameQueue frames, Size cropWarpSize, Size resizeSize, int areaId,
+                                      CropWarpEngine warpEngine) {
+        long startTime = System.currentTimeMillis();
+        TemporalVoter voter = new TemporalVoter(areaId, VOTE_AGREE_CONFIDENCE);
+        YOLODetectionService yoloService = YOLODetectionService.getInstance(this);
+        List<Mat> batch = new ArrayList<>();
+
+        try {
+            int nextFrame = 0;
+            // Stop between frames once cancelled (OpenCV / ONNX Runtime calls are not interruptible)
+            while (!voter.isSettled() && !Thread.currentThread().isInterrupted()) {
+                batch = frames.take(nextFrame == 0 ? 2 : 1);
+                if (batch.isEmpty()) {
+                    break;
+                }
+
+                // Process the images of this batch
+                List<VisionPipelineResult> pipelineResults = new ArrayList<>(batch.size());
+                List<Mat> yoloInputs = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    int frameNumber = nextFrame + i + 1;
+                    VisionPipelineResult pipelineResult = imageEnhanceAndCrop(batch.get(i), cropWarpSize, resizeSize, areaId, warpEngine);
+                    if (pipelineResult != null) {
+                        // Hand debug artifacts to the sink (only computed if its mode wants them)
+                        debugImageSink.publish(pipelineResult);
+                        pipelineResult.releaseDebug();
+                        pipelineResults.add(pipelineResult);
+                        yoloInputs.add(pipelineResult.getYoloInput());
+                    } else {
+                        Log.w(TAG, "Area " + areaId + " frame " + frameNumber + ": Image enhancement failed - no markers detected or processing error");
+                    }
+                }
+                nextFrame += batch.size();
+
+                // Detect items using YOLO and vote
+                if (!yoloInputs.isEmpty()) {
+                    List<YOLODetectionService.EnhancedDetectionResult> results = yoloService.detectBatch(
+                            yoloInputs,
+                            "lost",    // img_type ("lost" or "target")
+                            0.5f,      // conf_threshold
+                            0.45f,     // standard_nms_threshold
+                            0.8f       // overlap_nms_threshold
+                    );
+                    for (YOLODetectionService.EnhancedDetectionResult result : results) {
+                        voter.addFrame(result);
+                    }
+                    if (voter.isSettled()) {
+                        frames.setSettled();
+                    }
+                }
+
+                // Clean up the processed images
+                for (VisionPipelineResult pipelineResult : pipelineResults) {
+                    pipelineResult.release();
+                }
+                for (Mat frame : batch) {
+                    frame.release();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Area " + areaId + ": vision interrupted");
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.e(TAG, "Area " + areaId + ": vision error: " + e.getMessage(), e);
+        } finally {
+            // Clean up original images (the batch in progress and any not taken)
+            for (Mat frame : batch) {
+                frame.release();
+            }
+            frames.close();
+        }
+
+        AreaDetection detection = voter.getResult(YOLODetectionService.getClassMetadata(),
+                System.currentTimeMillis() - startTime);
+        Log.i(TAG, String.format("Area %d: voted over %d of %d captured frames", areaId, voter.getFrameCount(), frames.getAddedCount()));
+        return detection;
+    }
+
+    /**
+     * Report finished areas in area order. Without waitForAll, stops at the first area
+     * whose vision is still running so that later areas are never reported before it.
+     * @param pendingAreas Vision tasks by area ID, in submission order (reported entries are removed)
+     * @param areaTreasure Treasure types per area, updated for each reported area
+     * @param waitForAll true to block until every pending area is reported
+     */
+    private void reportFinishedAreas(LinkedHashMap<Integer, AreaVisionTask> pendingAreas,
+                                     Map<Integer, Set<String>> areaTreasure, boolean waitForAll) {
+        Iterator<Map.Entry<Integer, AreaVisionTask>> iterator = pendingAreas.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, AreaVisionTask> entry = iterator.next();
+            int areaId = entry.getKey();
+            AreaVisionTask task = entry.getValue();
+            Future<AreaDetection> future = task.future;
+            if (!waitForAll && !future.isDone()) {
+                break;
+            }
+
+            AreaDetection result;
+            try {
+                result = future.get(AREA_VISION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.e(TAG, "Area " + areaId + ": vision timed out after " + AREA_VISION_TIMEOUT_MS + " ms");
+                task.cancel();
+                result = AreaDetection.empty(areaId, YOLODetectionService.getClassMetadata());
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Area " + areaId + ": vision failed: " + e.getCause(), e.getCause());
+                result = AreaDetection.empty(areaId, YOLODetectionService.getClassMetadata());
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Area " + areaId + ": interrupted while waiting for vision");
+                Thread.currentThread().interrupt();
+                result = AreaDetection.empty(areaId, YOLODetectionService.getClassMetadata());
+            }
+
+            iterator.remove();
+            reportArea(result, areaTreasure);
+        }
+    }
+
+    /**
+     * Stop the vision worker: interrupt it and wait for it to finish
+     * @param visionExecutor Vision worker (all areas already reported or cancelled)
+     * @return true if the worker has terminated, false if it is still running
+     */
+    private boolean stopVisionWorker(ExecutorService visionExecutor) {
+        visionExecutor.shutdownNow();
+        try {
+            return visionExecutor.awaitTermination(VISION_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while stopping the vision worker");
+            Thread.currentThread().interrupt();
+            return visionExecutor.isTerminated();
+        }
+    }
+
+    /**
+     * Store one area's detections and call setAreaInfo (mission thread only)
+     * @param result Vision result for the area
+     * @param areaTreasure Treasure types per area
+     */
+    private void reportArea(AreaDetection result, Map<Integer, Set<String>> areaTreasure) {
+        int areaId = result.getAreaId();
+        Set<String> treasure_types = result.getTreasureTypes();
+
+        Log.i(TAG, result.toString());
+
+        // Store results for later use
+        areaDetections.put(areaId, result);
+        foundTreasures.addAll(treasure_types);
+        foundLandmarks.addAll(result.getLandmarkQuantities().keySet());
+
+        // Store treasure types for this area
+        areaTreasure.get(areaId).addAll(treasure_types);
+
+        Log.i(TAG, "Area " + areaId + " treasure types: " + areaTreasure.get(areaId));
+
+        // Use the most confident landmark for area info
+        if (result.hasLandmark()) {
+            String currentlandmark_items = result.getLandmarkName();
+            int landmarkCount = result.getReportedLandmarkCount();
+
+            // Set the area info with detected landmarks
+            api.setAreaInfo(areaId, currentlandmark_items, landmarkCount);
+            Log.i(TAG, String.format("Area %d: %s x %d", areaId, currentlandmark_items, landmarkCount));
+        } else {
+            Log.w(TAG, "Area " + areaId + ": No landmark items detected");
+            // Set default if no detection
+            api.setAreaInfo(areaId, "unknown", 0);
+        }
+    }
+
     /**
      * Process target image to identify the treasure type the astronaut is holding
      * @param targetImage Image from astronaut
      * @param resizeSize Processing size
+     * @param warpEngine Crop tables and ArUco context (not used by the vision worker)
      * @return Treasure type name or "unknown"
      */
-    private String processTargetImage(Mat targetImage, Size resizeSize) {
+    private String processTargetImage(Mat targetImage, Size resizeSize, CropWarpEngine warpEngine) {
         try {
             Log.i(TAG, "Processing target image from astronaut");
 
             // Save the target image for debugging
-            api.saveMatImage(targetImage, "target_astronaut_raw.png");
+            debugImageSink.saveIntermediate(targetImage, "target_astronaut_raw.png");
 
             // Use the SAME processing pipeline as areas (ArUco detection + cropping + enhancement)
             Size cropWarpSize = new Size(640, 480);   // Same as area processing
-            Mat processedTarget = imageEnhanceAndCrop(targetImage, cropWarpSize, resizeSize, 0); // Use 0 for target
+            VisionPipelineResult pipelineResult = imageEnhanceAndCrop(targetImage, cropWarpSize, resizeSize, 0, warpEngine); // Use 0 for target
 
-            if (processedTarget != null) {
+            if (pipelineResult != null) {
                 Log.i(TAG, "Target image processing successful - markers detected and cropped");
 
+                // Hand debug artifacts to the sink (only computed if its mode wants them)
+                debugImageSink.publish(pipelineResult);
+                pipelineResult.releaseDebug();
+                Mat processedTarget = pipelineResult.getYoloInput();
+
                 // Detect items using YOLO with "target" type - SAME as area processing
-                Object[] detected_items = detectitemfromcvimg(
+                AreaDetection detected_items = detectitemfromcvimg(
                         processedTarget,
+                        0,         // area ID 0 = target
                         0.3f,      // Lower confidence for target detection
                         "target",  // img_type for target
                         0.45f,     // standard_nms_threshold
@@ -286,21 +547,17 @@ public class YourService extends KiboRpcService {
                         320        // img_size
                 );
 
-                // Extract results - SAME as area processing
-                Map<String, Integer> landmark_items = (Map<String, Integer>) detected_items[0];
-                Set<String> treasure_types = (Set<String>) detected_items[1];
-
-                Log.i(TAG, "Target - Landmark quantities: " + landmark_items);
-                Log.i(TAG, "Target - Treasure types: " + treasure_types);
+                Log.i(TAG, "Target - Landmark quantities: " + detected_items.getLandmarkQuantities());
+                Log.i(TAG, "Target - Treasure types: " + detected_items.getTreasureTypes());
 
-                if (!treasure_types.isEmpty()) {
-                    String targetTreasure = treasure_types.iterator().next();
+                if (detected_items.hasTreasure()) {
+                    String targetTreasure = detected_items.getTreasureName();
                     Log.i(TAG, "Target treasure detected: " + targetTreasure);
-                    processedTarget.release();
+                    pipelineResult.release();
                     return targetTreasure;
                 }
 
-                processedTarget.release();
+                pipelineResult.release();
             } else {
                 Log.w(TAG, "Target image processing failed - no markers detected or processing error");
             }
@@ -325,13 +582,10 @@ public class YourService extends KiboRpcService {
 
             // Apply basic CLAHE enhancement
             Mat enhanced = new Mat();
-            CLAHE clahe = Imgproc.createCLAHE();
-            clahe.setClipLimit(2.0);
-            clahe.setTilesGridSize(new Size(8, 8));
-            clahe.apply(resized, enhanced);
+            enhancerRegistry.clahe(2.0, 8).apply(resized, enhanced);
 
             // Save enhanced target for debugging
-            api.saveMatImage(enhanced, "target_astronaut_enhanced.png");
+            debugImageSink.saveFinal(enhanced, "target_astronaut_enhanced.png");
 
             resized.release();
             return enhanced;
@@ -361,78 +615,38 @@ public class YourService extends KiboRpcService {
     /**
      * Method to detect items from CV image using YOLO - matches Python testcallyololib.py functionality
      * @param image Input OpenCV Mat image
+     * @param areaId Area identifier of the result (0 = target)
      * @param conf Confidence threshold (e.g., 0.3f)
      * @param imgtype Image type: "lost" or "target"
      * @param standard_nms_threshold Standard NMS threshold (e.g., 0.45f)
      * @param overlap_nms_threshold Overlap NMS threshold for intelligent NMS (e.g., 0.8f)
      * @param img_size Image size for processing (e.g., 320)
-     * @return Object array: [landmark_quantities (Map<String, Integer>), treasure_types (Set<String>)]
+     * @return Detection result with class-indexed counts (empty on error)
      */
-    private Object[] detectitemfromcvimg(Mat image, float conf, String imgtype,
-                                         float standard_nms_threshold, float overlap_nms_threshold, int img_size) {
-        YOLODetectionService yoloService = null;
+    private AreaDetection detectitemfromcvimg(Mat image, int areaId, float conf, String imgtype,
+                                              float standard_nms_threshold, float overlap_nms_threshold, int img_size) {
+        long startTime = System.currentTimeMillis();
         try {
             Log.i(TAG, String.format("Starting YOLO detection - type: %s, conf: %.2f", imgtype, conf));
 
-            // Initialize YOLO detection service
-            yoloService = new YOLODetectionService(this);
+            // Get the shared (already warmed-up) YOLO detection service
+            YOLODetectionService yoloService = YOLODetectionService.getInstance(this);
 
             // Call detection with all parameters (matches Python simple_detection_example)
             YOLODetectionService.EnhancedDetectionResult result = yoloService.DetectfromcvImage(
                     image, imgtype, conf, standard_nms_threshold, overlap_nms_threshold
             );
 
-            // Get Python-like result with class names
-            Map<String, Object> pythonResult = result.getPythonLikeResult();
-
-            // Extract landmark quantities (Map<String, Integer>) - matches Python detection['landmark_quantities']
-            Map<String, Integer> landmarkQuantities = (Map<String, Integer>) pythonResult.get("landmark_quantities");
-            if (landmarkQuantities == null) {
-                landmarkQuantities = new HashMap<>();
-            }
-
-            // Extract treasure quantities and get the keys (types) - matches Python detection['treasure_quantities'].keys()
-            Map<String, Integer> treasureQuantities = (Map<String, Integer>) pythonResult.get("treasure_quantities");
-            if (treasureQuantities == null) {
-                treasureQuantities = new HashMap<>();
-            }
-            Set<String> treasureTypes = new HashSet<>(treasureQuantities.keySet());
-
-            // Log results (matches Python print statements)
-            Log.i(TAG, "Landmark quantities: " + landmarkQuantities);
-            Log.i(TAG, "Treasure types: " + treasureTypes);
-
-            // Return as array: [landmark_quantities, treasure_types]
-            // This matches Python: report_landmark.append(detection['landmark_quantities'])
-            //                     store_treasure.append(detection['treasure_quantities'].keys())
-            return new Object[]{landmarkQuantities, treasureTypes};
+            AreaDetection detection = AreaDetection.fromResult(areaId, result)
+                    .withTiming(1, System.currentTimeMillis() - startTime);
+            Log.i(TAG, detection.toString());
+            return detection;
 
         } catch (Exception e) {
             Log.e(TAG, "Error in detectitemfromcvimg: " + e.getMessage(), e);
             // Return empty results on error
-            return new Object[]{new HashMap<String, Integer>(), new HashSet<String>()};
-        } finally {
-            // Clean up YOLO service
-            if (yoloService != null) {
-                yoloService.close();
-            }
-        }
-    }
-
-    /**
-     * Helper method to get the first landmark item and its count (matches Python usage pattern)
-     * @param landmarkQuantities Map of landmark quantities
-     * @return String array: [landmark_name, count_as_string] or null if empty
-     */
-    private String[] getFirstLandmarkItem(Map<String, Integer> landmarkQuantities) {
-        if (landmarkQuantities != null && !landmarkQuantities.isEmpty()) {
-            // Get first entry (matches Python landmark_items.keys()[0])
-            Map.Entry<String, Integer> firstEntry = landmarkQuantities.entrySet().iterator().next();
-            String landmarkName = firstEntry.getKey();
-            Integer count = firstEntry.getValue();
-            return new String[]{landmarkName, String.valueOf(count)};
+            return AreaDetection.empty(areaId, YOLODetectionService.getClassMetadata());
         }
-        return null;
     }
 
     /**
@@ -442,47 +656,38 @@ public class YourService extends KiboRpcService {
      * @param cropWarpSize Size for the cropped/warped image (e.g., 640x480)
      * @param resizeSize Size for the final processed image (e.g., 320x320)
      * @param areaId Area identifier for filename generation
-     * @return Processed CLAHE + Otsu binarized image, or null if no markers detected
+     * @return Pipeline result holding the CLAHE image for YOLO plus lazy debug artifacts
+     *         (image must stay alive until they are requested), or null if no markers detected
      */
-    private Mat imageEnhanceAndCrop(Mat image, Size cropWarpSize, Size resizeSize, int areaId) {
+    private VisionPipelineResult imageEnhanceAndCrop(Mat image, Size cropWarpSize, Size resizeSize, int areaId,
+                                                     CropWarpEngine warpEngine) {
+        ArucoContext arucoContext = warpEngine.getArucoContext();
+        VisionPipelineResult pipelineResult = new VisionPipelineResult(areaId);
         try {
-            // Save original test image with area ID
+            // Original test image with area ID (copied only if requested)
             String rawImageFilename = "area_" + areaId + "_raw.png";
-            api.saveMatImage(image, rawImageFilename);
-            Log.i(TAG, "Raw image saved as " + rawImageFilename);
-
-            // Initialize ArUco detection
-            Dictionary dictionary = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-            List<Mat> corners = new ArrayList<>();
-            Mat ids = new Mat();
+            pipelineResult.addDebugImage(rawImageFilename, false, image::clone);
 
-            // Detect markers
-            Aruco.detectMarkers(image, dictionary, corners, ids);
+            // Detect markers around the expected marker position (full frame as fallback)
+            ArucoContext.MarkerBuffers markers = arucoContext.acquireBuffers();
+            int markerCount = arucoContext.detectNear(image, areaId, markers);
 
-            if (corners.size() > 0) {
-                Log.i(TAG, "Detected " + corners.size() + " markers.");
+            if (markerCount > 0) {
+                Log.i(TAG, "Detected " + markerCount + " markers.");
 
                 // Keep only the closest marker to image center
-                Object[] filtered = keepClosestMarker(corners, ids, image);
-                List<Mat> filteredCorners = (List<Mat>) filtered[0];
-                Mat filteredIds = (Mat) filtered[1];
+                MarkerSelection selection = keepClosestMarker(markers.corners, markers.ids, image);
+                List<Mat> filteredCorners = selection.getCorners();
+                Mat filteredIds = selection.getIds();
 
-                // Clean up original corners and ids (now safe since we cloned the data)
-                for (Mat corner : corners) {
-                    corner.release();
-                }
-                ids.release();
+                // Return the detection buffers to the pool (now safe since we cloned the data)
+                arucoContext.releaseBuffers(markers);
 
                 Log.i(TAG, "Using closest marker. Remaining markers: " + filteredCorners.size());
 
-                // Get camera parameters
-                double[][] intrinsics = api.getNavCamIntrinsics();
-                Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
-                Mat distCoeffs = new Mat(1, 5, CvType.CV_64F);
-
-                cameraMatrix.put(0, 0, intrinsics[0]);
-                distCoeffs.put(0, 0, intrinsics[1]);
-                distCoeffs.convertTo(distCoeffs, CvType.CV_64F);
+                // Camera parameters (built once per mission)
+                Mat cameraMatrix = arucoContext.getCameraMatrix();
+                Mat distCoeffs = arucoContext.getDistCoeffs();
 
                 // Estimate pose for first marker
                 Mat rvecs = new Mat();
@@ -492,9 +697,6 @@ public class YourService extends KiboRpcService {
                 Aruco.estimatePoseSingleMarkers(filteredCorners, markerLength, cameraMatrix, distCoeffs, rvecs, tvecs);
 
                 // Process first marker only
-                Mat imageWithFrame = image.clone();
-                Aruco.drawDetectedMarkers(imageWithFrame, filteredCorners, filteredIds);
-
                 if (rvecs.rows() > 0 && tvecs.rows() > 0) {
                     Mat rvec = new Mat(3, 1, CvType.CV_64F);
                     Mat tvec = new Mat(3, 1, CvType.CV_64F);
@@ -502,40 +704,41 @@ public class YourService extends KiboRpcService {
                     rvecs.row(0).copyTo(rvec);
                     tvecs.row(0).copyTo(tvec);
 
-                    // Convert to RGB and draw axis
-                    Imgproc.cvtColor(imageWithFrame, imageWithFrame, Imgproc.COLOR_GRAY2RGB);
-                    Aruco.drawAxis(imageWithFrame, cameraMatrix, distCoeffs, rvec, tvec, 0.1f);
-
-                    // Save marker with frame using area ID
+                    // Marker + axis picture is debug only: drawn only if requested
                     String markerFilename = "area_" + areaId + "_marker_0_with_frame.png";
-                    api.saveMatImage(imageWithFrame, markerFilename);
-                    Log.i(TAG, "Marker image saved as " + markerFilename);
+                    pipelineResult.addDebugImage(markerFilename, false, () -> {
+                        Mat imageWithFrame = image.clone();
+                        Aruco.drawDetectedMarkers(imageWithFrame, filteredCorners, filteredIds);
+
+                        // Convert to RGB and draw axis
+                        Imgproc.cvtColor(imageWithFrame, imageWithFrame, Imgproc.COLOR_GRAY2RGB);
+                        Aruco.drawAxis(imageWithFrame, cameraMatrix, distCoeffs, rvec, tvec, 0.1f);
+                        return imageWithFrame;
+                    });
 
                     // Process crop region and return enhanced image with custom sizes
-                    Mat processedImage = processCropRegion(image, cameraMatrix, distCoeffs, rvec, tvec, cropWarpSize, resizeSize, areaId);
-
-                    // Clean up
-                    rvec.release();
-                    tvec.release();
-                    imageWithFrame.release();
-                    cameraMatrix.release();
-                    distCoeffs.release();
+                    Mat processedImage = processCropRegion(image, rvec, tvec,
+                            cropWarpSize, resizeSize, areaId, warpEngine, pipelineResult);
+
+                    // Clean up (marker data is kept until the debug artifacts are released)
                     rvecs.release();
                     tvecs.release();
-
-                    // Clean up filtered corners and ids
-                    filteredIds.release();
+                    pipelineResult.retain(rvec);
+                    pipelineResult.retain(tvec);
+                    pipelineResult.retain(filteredIds);
                     for (Mat corner : filteredCorners) {
-                        corner.release();
+                        pipelineResult.retain(corner);
                     }
 
-                    return processedImage;
+                    if (processedImage != null) {
+                        pipelineResult.setYoloInput(processedImage);
+                        return pipelineResult;
+                    }
+                    pipelineResult.release();
+                    return null;
                 }
 
                 // Clean up if pose estimation failed
-                imageWithFrame.release();
-                cameraMatrix.release();
-                distCoeffs.release();
                 rvecs.release();
                 tvecs.release();
                 filteredIds.release();
@@ -544,62 +747,35 @@ public class YourService extends KiboRpcService {
                 }
             } else {
                 Log.w(TAG, "No ArUco markers detected in image");
-                // Clean up empty lists
-                ids.release();
+                arucoContext.releaseBuffers(markers);
             }
 
+            pipelineResult.release();
             return null; // No markers detected
 
         } catch (Exception e) {
             Log.e(TAG, "Error in imageEnhanceAndCrop: " + e.getMessage());
+            pipelineResult.release();
             return null;
         }
     }
 
     /**
-     * Helper method to process the crop region and apply CLAHE + binarization
+     * Helper method to process the crop region and apply CLAHE + binarization.
+     * The crop is undistorted and rectified in one remap pass (table cached per marker pose).
      */
-    private Mat processCropRegion(Mat image, Mat cameraMatrix, Mat distCoeffs, Mat rvec, Mat tvec, Size cropWarpSize, Size resizeSize, int areaId) {
+    private Mat processCropRegion(Mat image, Mat rvec, Mat tvec, Size cropWarpSize, Size resizeSize, int areaId,
+                                  CropWarpEngine warpEngine, VisionPipelineResult pipelineResult) {
         try {
-            // Define crop area corners in 3D (manually adjusted)
-            org.opencv.core.Point3[] cropCorners3D = {
-                    new org.opencv.core.Point3(-0.0265, 0.0420, 0),    // Top-left
-                    new org.opencv.core.Point3(-0.2385, 0.0420, 0),   // Top-right
-                    new org.opencv.core.Point3(-0.2385, -0.1170, 0),  // Bottom-right
-                    new org.opencv.core.Point3(-0.0265, -0.1170, 0)   // Bottom-left
-            };
-
-            MatOfPoint3f cropCornersMat = new MatOfPoint3f(cropCorners3D);
-            MatOfPoint2f cropCorners2D = new MatOfPoint2f();
-
-            // Convert distortion coefficients
-            double[] distData = new double[5];
-            distCoeffs.get(0, 0, distData);
-            MatOfDouble distCoeffsDouble = new MatOfDouble();
-            distCoeffsDouble.fromArray(distData);
-
-            // Project crop corners to 2D
-            Calib3d.projectPoints(cropCornersMat, rvec, tvec, cameraMatrix, distCoeffsDouble, cropCorners2D);
-            org.opencv.core.Point[] cropPoints2D = cropCorners2D.toArray();
-
-            if (cropPoints2D.length == 4) {
-                // Create perspective transformation and get processed image with custom sizes
-                Mat processedImage = cropEnhanceAndBinarize(image, cropPoints2D, cropWarpSize, resizeSize, areaId);
-
-                // Clean up
-                cropCornersMat.release();
-                cropCorners2D.release();
-                distCoeffsDouble.release();
-
-                return processedImage;
+            if (singlePassCrop) {
+                return warpEnhanceSinglePass(image, rvec, tvec, cropWarpSize, resizeSize, areaId, warpEngine, pipelineResult);
             }
 
-            // Clean up if crop failed
-            cropCornersMat.release();
-            cropCorners2D.release();
-            distCoeffsDouble.release();
+            // Undistort + crop with the lookup table for this marker pose
+            Mat croppedImage = warpEngine.warp(image, rvec, tvec, cropWarpSize);
 
-            return null;
+            // Enhance the cropped image with custom sizes
+            return cropEnhanceAndBinarize(croppedImage, cropWarpSize, resizeSize, areaId, pipelineResult);
 
         } catch (Exception e) {
             Log.e(TAG, "Error in processCropRegion: " + e.getMessage());
@@ -608,47 +784,148 @@ public class YourService extends KiboRpcService {
     }
 
     /**
-     * Helper method to crop, enhance with CLAHE, and binarize the image
-     * @param image Input image
-     * @param cropPoints2D 2D points for perspective transformation
+     * Fast path: warp directly into the YOLO input size and apply CLAHE in place on that buffer.
+     * The crop is upsampled here (the item region is smaller than 320x320 in the NavCam image),
+     * so bilinear sampling in the remap replaces the old warp + INTER_LINEAR resize.
+     * Intermediate images are re-created lazily for debugging, plus a parity stat against
+     * the two-stage path.
+     * @param image Raw NavCam image (must stay alive until the debug artifacts are requested)
+     * @param rvec Marker rotation vector (retained by pipelineResult)
+     * @param tvec Marker translation vector (retained by pipelineResult)
+     * @param cropWarpSize Crop size of the two-stage path (debug crop and parity only)
+     * @param resizeSize Size for the final processed image
+     * @param areaId Area identifier for filename generation
+     * @param warpEngine Crop tables for the marker pose
+     * @param pipelineResult Receives the debug artifacts
+     * @return CLAHE-enhanced YOLO input
+     */
+    private Mat warpEnhanceSinglePass(Mat image, Mat rvec, Mat tvec, Size cropWarpSize, Size resizeSize, int areaId,
+                                      CropWarpEngine warpEngine, VisionPipelineResult pipelineResult) {
+        // Undistort + crop straight to the final size, then enhance in place
+        Mat claheImage = warpEngine.warp(image, rvec, tvec, resizeSize);
+        applyAreaClahe(claheImage, claheImage, resizeSize);
+
+        // Two-stage crop is debug only: warped only if requested
+        String cropFilename = String.format("area_%d_cropped_region_%.0fx%.0f.png", areaId, cropWarpSize.width, cropWarpSize.height);
+        pipelineResult.addDebugImage(cropFilename, false, () -> warpEngine.warp(image, rvec, tvec, cropWarpSize));
+
+        // Parity with the two-stage path (computed only if requested)
+        pipelineResult.addDebugStat(() -> {
+            Mat twoStage = cropEnhanceTwoStage(image, rvec, tvec, cropWarpSize, resizeSize, warpEngine);
+            Mat difference = new Mat();
+            Core.absdiff(twoStage, claheImage, difference);
+            double meanDifference = Core.mean(difference).val[0];
+            double maxDifference = Core.minMaxLoc(difference).maxVal;
+            twoStage.release();
+            difference.release();
+            return String.format("Single-pass vs two-stage crop - mean diff: %.2f, max diff: %.0f",
+                    meanDifference, maxDifference);
+        });
+
+        // Remap crop vs the original warpPerspective crop (computed only if requested). They
+        // differ inside by the lens distortion correction; the edge band shows border artifacts.
+        pipelineResult.addDebugStat(() -> {
+            Mat remapCrop = warpEngine.warp(image, rvec, tvec, cropWarpSize);
+            Mat referenceCrop = warpEngine.warpReference(image, rvec, tvec, cropWarpSize);
+            Mat difference = new Mat();
+            Core.absdiff(remapCrop, referenceCrop, difference);
+            int band = 2;
+            double fullArea = difference.rows() * (double) difference.cols();
+            double innerArea = (difference.rows() - 2 * band) * (double) (difference.cols() - 2 * band);
+            double fullSum = Core.sumElems(difference).val[0];
+            Mat inner = difference.submat(band, difference.rows() - band, band, difference.cols() - band);
+            double innerSum = Core.sumElems(inner).val[0];
+            inner.release();
+            remapCrop.release();
+            referenceCrop.release();
+            difference.release();
+            return String.format("Remap vs warpPerspective crop - mean diff: %.2f, edge band mean diff: %.2f",
+                    fullSum / fullArea, (fullSum - innerSum) / (fullArea - innerArea));
+        });
+
+        addClaheDebugArtifacts(claheImage, resizeSize, areaId, pipelineResult);
+        return claheImage;
+    }
+
+    /**
+     * Two-stage crop (warp to cropWarpSize, resize, CLAHE) without debug artifacts, for parity checks
+     */
+    private Mat cropEnhanceTwoStage(Mat image, Mat rvec, Mat tvec, Size cropWarpSize, Size resizeSize,
+                                    CropWarpEngine warpEngine) {
+        Mat croppedImage = warpEngine.warp(image, rvec, tvec, cropWarpSize);
+        Mat resizedImage = new Mat();
+        Imgproc.resize(croppedImage, resizedImage, resizeSize);
+        Mat claheImage = new Mat();
+        applyAreaClahe(resizedImage, claheImage, resizeSize);
+        croppedImage.release();
+        resizedImage.release();
+        return claheImage;
+    }
+
+    /**
+     * Apply the area CLAHE (clip limit 2.0, grid scaled with the image size); src and dst may be the same Mat
+     */
+    private void applyAreaClahe(Mat src, Mat dst, Size resizeSize) {
+        enhancerRegistry.claheForSize(resizeSize.width, resizeSize.height).apply(src, dst);
+    }
+
+    /**
+     * Attach the CLAHE image (YOLO input), its min/max stat and the Otsu binary debug image
+     */
+    private void addClaheDebugArtifacts(Mat claheImage, Size resizeSize, int areaId, VisionPipelineResult pipelineResult) {
+        // Min/max values of the CLAHE-enhanced image (computed only if requested)
+        pipelineResult.addDebugStat(() -> {
+            Core.MinMaxLocResult claheMinMaxResult = Core.minMaxLoc(claheImage);
+            return String.format("CLAHE enhanced image (%.0fx%.0f) - Min: %.2f, Max: %.2f",
+                    resizeSize.width, resizeSize.height, claheMinMaxResult.minVal, claheMinMaxResult.maxVal);
+        });
+
+        // CLAHE enhanced image with area ID (this is the YOLO input)
+        String claheFilename = String.format("area_%d_yolo_clahe_%.0fx%.0f.png", areaId, resizeSize.width, resizeSize.height);
+        pipelineResult.addDebugImage(claheFilename, true, claheImage::clone);
+
+        // Otsu's binarization (FOR DEBUG ONLY - computed only when a consumer asks for it)
+        String binaryFilename = String.format("area_%d_debug_binary_otsu_%.0fx%.0f.png", areaId, resizeSize.width, resizeSize.height);
+        pipelineResult.addDebugImage(binaryFilename, false, () -> {
+            // Apply Otsu's automatic threshold binarization for debugging purposes
+            Mat binarizedOtsu = new Mat();
+            double otsuThreshold = Imgproc.threshold(claheImage, binarizedOtsu, 0, 255,
+                    Imgproc.THRESH_BINARY + Imgproc.THRESH_OTSU);
+
+            // Print min/max values and threshold of Otsu binarized image
+            Core.MinMaxLocResult binaryOtsuResult = Core.minMaxLoc(binarizedOtsu);
+            Log.i(TAG, String.format("Binary Otsu (%.1f) - Min: %.2f, Max: %.2f",
+                    otsuThreshold, binaryOtsuResult.minVal, binaryOtsuResult.maxVal));
+            return binarizedOtsu;
+        });
+    }
+
+    /**
+     * Helper method to enhance the cropped image with CLAHE and binarize it
+     * @param croppedImage Rectified crop from CropWarpEngine (retained by pipelineResult)
      * @param cropWarpSize Size for the cropped/warped image (configurable)
      * @param resizeSize Size for the final processed image (configurable)
      * @param areaId Area identifier for filename generation
+     * @param pipelineResult Receives the debug artifacts (crop, resize, CLAHE, Otsu, min/max stats)
      */
-    private Mat cropEnhanceAndBinarize(Mat image, org.opencv.core.Point[] cropPoints2D, Size cropWarpSize, Size resizeSize, int areaId) {
+    private Mat cropEnhanceAndBinarize(Mat croppedImage, Size cropWarpSize, Size resizeSize, int areaId,
+                                       VisionPipelineResult pipelineResult) {
         try {
             // ========================================================================
-            // STEP 1: Create cropped image with configurable size
+            // STEP 1: Cropped image with configurable size (warped by CropWarpEngine)
             // ========================================================================
 
-            // Define destination points for configurable rectangle
-            org.opencv.core.Point[] dstPointsCrop = {
-                    new org.opencv.core.Point(0, 0),                           // Top-left
-                    new org.opencv.core.Point(cropWarpSize.width - 1, 0),      // Top-right
-                    new org.opencv.core.Point(cropWarpSize.width - 1, cropWarpSize.height - 1),   // Bottom-right
-                    new org.opencv.core.Point(0, cropWarpSize.height - 1)      // Bottom-left
-            };
-
-            // Create source and destination point matrices
-            MatOfPoint2f srcPointsMat = new MatOfPoint2f(cropPoints2D);
-            MatOfPoint2f dstPointsMatCrop = new MatOfPoint2f(dstPointsCrop);
-
-            // Calculate perspective transformation matrix
-            Mat perspectiveMatrixCrop = Imgproc.getPerspectiveTransform(srcPointsMat, dstPointsMatCrop);
-
-            // Apply perspective transformation to get cropped image
-            Mat croppedImage = new Mat();
-            Imgproc.warpPerspective(image, croppedImage, perspectiveMatrixCrop, cropWarpSize);
-
-            // Print min/max values of the cropped image
-            Core.MinMaxLocResult minMaxResultCrop = Core.minMaxLoc(croppedImage);
-            Log.i(TAG, String.format("Cropped image %.0fx%.0f - Min: %.2f, Max: %.2f",
-                    cropWarpSize.width, cropWarpSize.height, minMaxResultCrop.minVal, minMaxResultCrop.maxVal));
+            // Min/max values of the cropped image (computed only if requested)
+            pipelineResult.retain(croppedImage);
+            pipelineResult.addDebugStat(() -> {
+                Core.MinMaxLocResult minMaxResultCrop = Core.minMaxLoc(croppedImage);
+                return String.format("Cropped image %.0fx%.0f - Min: %.2f, Max: %.2f",
+                        cropWarpSize.width, cropWarpSize.height, minMaxResultCrop.minVal, minMaxResultCrop.maxVal);
+            });
 
-            // Save the cropped image with area ID and dynamic filename
+            // Cropped image with area ID and dynamic filename
             String cropFilename = String.format("area_%d_cropped_region_%.0fx%.0f.png", areaId, cropWarpSize.width, cropWarpSize.height);
-            api.saveMatImage(croppedImage, cropFilename);
-            Log.i(TAG, "Cropped region saved as " + cropFilename);
+            pipelineResult.addDebugImage(cropFilename, false, croppedImage::clone);
 
             // ========================================================================
             // STEP 2: Resize to final processing size (configurable)
@@ -658,10 +935,10 @@ public class YourService extends KiboRpcService {
             Mat resizedImage = new Mat();
             Imgproc.resize(croppedImage, resizedImage, resizeSize);
 
-            // Save resized image with area ID
+            // Resized image with area ID
+            pipelineResult.retain(resizedImage);
             String resizeFilename = String.format("area_%d_yolo_original_%.0fx%.0f.png", areaId, resizeSize.width, resizeSize.height);
-            api.saveMatImage(resizedImage, resizeFilename);
-            Log.i(TAG, "Resized image saved as " + resizeFilename);
+            pipelineResult.addDebugImage(resizeFilename, false, resizedImage::clone);
 
             // ========================================================================
             // STEP 3: Apply CLAHE enhancement (FINAL OUTPUT)
@@ -669,55 +946,16 @@ public class YourService extends KiboRpcService {
 
             // Apply CLAHE for better contrast enhancement
             Mat claheImage = new Mat();
-            CLAHE clahe = Imgproc.createCLAHE();
-            clahe.setClipLimit(2.0);  // Controls contrast enhancement
-
-            // Adjust grid size based on image size
-            int gridSize = (int) Math.max(8, Math.min(resizeSize.width, resizeSize.height) / 40);
-            clahe.setTilesGridSize(new Size(gridSize, gridSize));
-
-            clahe.apply(resizedImage, claheImage);
-
-            // Print min/max values of the CLAHE-enhanced image
-            Core.MinMaxLocResult claheMinMaxResult = Core.minMaxLoc(claheImage);
-            Log.i(TAG, String.format("CLAHE enhanced image (%.0fx%.0f) - Min: %.2f, Max: %.2f",
-                    resizeSize.width, resizeSize.height, claheMinMaxResult.minVal, claheMinMaxResult.maxVal));
-
-            // Save CLAHE enhanced image with area ID
-            String claheFilename = String.format("area_%d_yolo_clahe_%.0fx%.0f.png", areaId, resizeSize.width, resizeSize.height);
-            api.saveMatImage(claheImage, claheFilename);
-            Log.i(TAG, "CLAHE enhanced image saved as " + claheFilename);
+            applyAreaClahe(resizedImage, claheImage, resizeSize);
 
             // ========================================================================
-            // STEP 4: Apply Otsu's binarization (FOR DEBUG ONLY - NOT RETURNED)
+            // STEP 4: CLAHE stats + Otsu's binarization (FOR DEBUG ONLY - NOT RETURNED)
             // ========================================================================
 
-            // Apply Otsu's automatic threshold binarization for debugging purposes
-            Mat binarizedOtsu = new Mat();
-            double otsuThreshold = Imgproc.threshold(claheImage, binarizedOtsu, 0, 255,
-                    Imgproc.THRESH_BINARY + Imgproc.THRESH_OTSU);
+            addClaheDebugArtifacts(claheImage, resizeSize, areaId, pipelineResult);
 
-            // Print min/max values and threshold of Otsu binarized image
-            Core.MinMaxLocResult binaryOtsuResult = Core.minMaxLoc(binarizedOtsu);
-            Log.i(TAG, String.format("Binary Otsu (%.1f) - Min: %.2f, Max: %.2f",
-                    otsuThreshold, binaryOtsuResult.minVal, binaryOtsuResult.maxVal));
-
-            // Save the Otsu binarized image for debugging purposes
-            String binaryFilename = String.format("area_%d_debug_binary_otsu_%.0fx%.0f.png", areaId, resizeSize.width, resizeSize.height);
-            api.saveMatImage(binarizedOtsu, binaryFilename);
-            Log.i(TAG, String.format("Debug binary image saved as %s (threshold: %.1f)", binaryFilename, otsuThreshold));
-
-            // ========================================================================
-            // CLEANUP
-            // ========================================================================
-
-            // Clean up intermediate images (but NOT claheImage - that's our return value)
-            srcPointsMat.release();
-            dstPointsMatCrop.release();
-            perspectiveMatrixCrop.release();
-            croppedImage.release();
-            resizedImage.release();
-            binarizedOtsu.release();  // Release the debug binary image
+            // croppedImage/resizedImage are retained by pipelineResult for the debug
+            // artifacts, and claheImage is our return value
 
             // Return the CLAHE enhanced image (instead of binary)
             return claheImage;
@@ -734,11 +972,11 @@ public class YourService extends KiboRpcService {
      * @param corners List of detected marker corners
      * @param ids Mat containing marker IDs
      * @param image Original image (to get center coordinates)
-     * @return Object array: [filtered_corners, filtered_ids]
+     * @return Selected marker with cloned corners and ID (empty if none is usable)
      */
-    private Object[] keepClosestMarker(List<Mat> corners, Mat ids, Mat image) {
+    private MarkerSelection keepClosestMarker(List<Mat> corners, Mat ids, Mat image) {
         if (corners.size() == 0) {
-            return new Object[]{new ArrayList<Mat>(), new Mat()};
+            return MarkerSelection.none();
         }
 
         if (corners.size() == 1) {
@@ -752,7 +990,7 @@ public class YourService extends KiboRpcService {
             }
 
             Log.i(TAG, "Single marker detected, using it.");
-            return new Object[]{clonedCorners, clonedIds};
+            return new MarkerSelection(clonedCorners, clonedIds, 0, 0);
         }
 
         Log.i(TAG, "Multiple markers detected (" + corners.size() + "), finding closest to center...");
@@ -819,7 +1057,7 @@ public class YourService extends KiboRpcService {
         } else {
             Log.e(TAG, String.format("Selected corner has invalid format: %dx%d channels=%d",
                     selectedCorner.rows(), selectedCorner.cols(), selectedCorner.channels()));
-            return new Object[]{new ArrayList<Mat>(), new Mat()};
+            return MarkerSelection.none();
         }
 
         // Also filter the IDs to match
@@ -832,89 +1070,66 @@ public class YourService extends KiboRpcService {
             filteredIds.put(0, 0, idData);
         }
 
-        return new Object[]{filteredCorners, filteredIds};
+        return new MarkerSelection(filteredCorners, filteredIds, closestIndex, minDistance);
     }
 
     /**
-     * Verifies that ArUco markers are visible by taking pictures at regular intervals
+     * Verifies that ArUco markers are visible, taking each picture as soon as the robot has settled
      * @param maxWaitTimeMs Maximum time to wait (e.g., 2000)
-     * @param intervalMs Interval between attempts (e.g., 200)
      * @param debugPrefix Prefix for saved debug images (e.g., "astronaut")
+     * @param arucoContext ArUco context not used by the vision worker
      * @return true if markers detected, false if timeout
      */
-    private boolean waitForMarkersDetection(int maxWaitTimeMs, int intervalMs, String debugPrefix) {
+    private boolean waitForMarkersDetection(int maxWaitTimeMs, String debugPrefix, ArucoContext arucoContext) {
         boolean markersDetected = false;
-        int maxAttempts = maxWaitTimeMs / intervalMs;
         int attempts = 0;
         long startTime = System.currentTimeMillis();
 
-        Log.i(TAG, String.format("Starting marker detection verification - max %dms, interval %dms",
-                maxWaitTimeMs, intervalMs));
+        Log.i(TAG, String.format("Starting marker detection verification - max %dms", maxWaitTimeMs));
+
+        // One buffer set reused across all attempts
+        ArucoContext.MarkerBuffers markers = arucoContext.acquireBuffers();
 
-        while (!markersDetected && attempts < maxAttempts) {
+        while (!markersDetected && System.currentTimeMillis() - startTime < maxWaitTimeMs) {
             try {
-                // Take a picture
-                Mat testImage = api.getMatNavCam();
+                // Take a picture as soon as the robot is still (no fixed polling interval)
+                Mat testImage = settleDetector.waitForStableFrame();
+                attempts++;
 
                 if (testImage != null) {
-                    // Initialize ArUco detection
-                    Dictionary dictionary = Aruco.getPredefinedDictionary(Aruco.DICT_5X5_250);
-                    List<Mat> corners = new ArrayList<>();
-                    Mat ids = new Mat();
-
-                    // Detect markers
-                    Aruco.detectMarkers(testImage, dictionary, corners, ids);
+                    // Detect markers around the expected target marker position (area ID 0)
+                    int markerCount = arucoContext.detectNear(testImage, 0, markers);
 
-                    if (corners.size() > 0) {
+                    if (markerCount > 0) {
                         markersDetected = true;
                         long elapsedTime = System.currentTimeMillis() - startTime;
                         Log.i(TAG, String.format("SUCCESS: %d markers detected after %d attempts (%.1fs)",
-                                corners.size(), attempts + 1, elapsedTime / 1000.0));
+                                markerCount, attempts, elapsedTime / 1000.0));
 
                         // Save successful image for debugging
-                        api.saveMatImage(testImage, debugPrefix + "_markers_detected.png");
+                        debugImageSink.saveIntermediate(testImage, debugPrefix + "_markers_detected.png");
                     } else {
-                        Log.d(TAG, String.format("Attempt %d/%d: No markers detected", attempts + 1, maxAttempts));
-                    }
-
-                    // Clean up ArUco detection resources
-                    for (Mat corner : corners) {
-                        corner.release();
+                        Log.d(TAG, String.format("Attempt %d: No markers detected", attempts));
                     }
-                    ids.release();
 
                     // Clean up test image
                     testImage.release();
                 } else {
-                    Log.w(TAG, "Failed to get image from camera on attempt " + (attempts + 1));
+                    Log.w(TAG, "Failed to get image from camera on attempt " + attempts);
                 }
 
-                attempts++;
-
-                // Wait before next attempt (only if not the last attempt)
-                if (!markersDetected && attempts < maxAttempts) {
-                    Thread.sleep(intervalMs);
-                }
-
-            } catch (InterruptedException e) {
-                Log.w(TAG, "Sleep interrupted during marker detection");
-                break;
             } catch (Exception e) {
-                Log.e(TAG, "Error during marker detection attempt " + (attempts + 1) + ": " + e.getMessage());
-                attempts++;
+                Log.e(TAG, "Error during marker detection attempt " + attempts + ": " + e.getMessage());
+            }
 
-                // Still wait before next attempt
-                if (attempts < maxAttempts) {
-                    try {
-                        Thread.sleep(intervalMs);
-                    } catch (InterruptedException ie) {
-                        Log.w(TAG, "Sleep interrupted after error");
-                        break;
-                    }
-                }
+            if (Thread.currentThread().isInterrupted()) {
+                Log.w(TAG, "Interrupted during marker detection");
+                break;
             }
         }
 
+        arucoContext.releaseBuffers(markers);
+
         // Log final result
         long totalTime = System.currentTimeMillis() - startTime;
         if (markersDetected) {
@@ -936,7 +1151,44 @@ public class YourService extends KiboRpcService {
         return "your method";
     }
 
+    /**
+     * Vision work of one area on the worker. The frame queue is closed by whoever claims it
+     * first: the worker when the task starts (processArea closes it when done), or the mission
+     * thread when the task is cancelled before it started (the executor then never runs it).
+     */
+    private final class AreaVisionTask implements Callable<AreaDetection> {
+        final int areaId;
+        final AreaFrameQueue frames = new AreaFrameQueue();
+        private final Size cropWarpSize;
+        private final Size resizeSize;
+        private final CropWarpEngine warpEngine;
+        private final AtomicBoolean framesClaimed = new AtomicBoolean(false);
+        Future<AreaDetection> future;
+
+        AreaVisionTask(int areaId, Size cropWarpSize, Size resizeSize, CropWarpEngine warpEngine) {
+            this.areaId = areaId;
+            this.cropWarpSize = cropWarpSize;
+            this.resizeSize = resizeSize;
+            this.warpEngine = warpEngine;
+        }
 
+        @Override
+        public AreaDetection call() {
+            if (!framesClaimed.compareAndSet(false, true)) {
+                return AreaDetection.empty(areaId, YOLODetectionService.getClassMetadata());
+            }
+            return processArea(frames, cropWarpSize, resizeSize, areaId, warpEngine);
+        }
 
+        /**
+         * Cancel the task (interrupting the worker) and release the frames if it never started
+         */
+        void cancel() {
+            future.cancel(true);
+            if (framesClaimed.compareAndSet(false, true)) {
+                frames.close();
+                Log.w(TAG, "Area " + areaId + ": vision cancelled before it started - frames released");
+            }
+        }
+    }
 }
-
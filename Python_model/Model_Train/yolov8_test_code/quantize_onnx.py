@@ -0,0 +1,123 @@
+import hashlib
+import os
+import random
+
+import cv2
+import numpy as np
+import onnx
+from onnxruntime.quantization import (CalibrationDataReader, CalibrationMethod, QuantFormat,
+                                      QuantType, quantize_dynamic, quantize_static)
+from onnxruntime.quantization.shape_inference import quant_pre_process
+from onnxconverter_common import float16
+
+# Your paths
+fp32_model_path = r'E:\gitrepo\yolo-V8-main\kiborpc\yolo_v8n_400.onnx'
+# "images" folder written by Data_Prepare/Generate_Traindata/Generate_kibotrainingdata.py
+calibration_image_folder = r'E:\Ian\kiborpc\Kibodataset_aug\val\images'
+output_folder = r'E:\gitrepo\yolo-V8-main\kiborpc'
+
+img_size = 320
+num_calibration_images = 300
+
+# Output names must match YOLODetectionService.ModelVariant asset names
+fp16_model_path = os.path.join(output_folder, 'yolo_v8n_400_fp16.onnx')
+int8_dynamic_model_path = os.path.join(output_folder, 'yolo_v8n_400_int8_dynamic.onnx')
+int8_static_model_path = os.path.join(output_folder, 'yolo_v8n_400_int8_static.onnx')
+
+
+def preprocess_image(image_path, img_size):
+    """
+    Same preprocessing as StandardPreprocessor.java:
+    BGR/gray -> RGB, resize to img_size, scale to [0, 1], NCHW float32
+    """
+    img = cv2.imread(image_path, cv2.IMREAD_UNCHANGED)
+    if img.ndim == 2:
+        img = cv2.cvtColor(img, cv2.COLOR_GRAY2RGB)
+    elif img.shape[2] == 4:
+        img = cv2.cvtColor(img, cv2.COLOR_BGRA2RGB)
+    else:
+        img = cv2.cvtColor(img, cv2.COLOR_BGR2RGB)
+    img = cv2.resize(img, (img_size, img_size))
+    img = img.astype(np.float32) / 255.0
+    return np.transpose(img, (2, 0, 1))[np.newaxis, ...]
+
+
+class KiboCalibrationDataReader(CalibrationDataReader):
+    """
+    Feeds generated Kibo training images to the static quantization calibrator
+    """
+    def __init__(self, image_folder, input_name, img_size, max_images):
+        image_files = sorted(f for f in os.listdir(image_folder) if f.endswith('.png'))
+        random.Random(0).shuffle(image_files)
+        self.image_paths = [os.path.join(image_folder, f) for f in image_files[:max_images]]
+        self.input_name = input_name
+        self.img_size = img_size
+        self.index = 0
+        print(f"Calibration images: {len(self.image_paths)} from {image_folder}")
+
+    def get_next(self):
+        if self.index >= len(self.image_paths):
+            return None
+        image = preprocess_image(self.image_paths[self.index], self.img_size)
+        self.index += 1
+        return {self.input_name: image}
+
+    def rewind(self):
+        self.index = 0
+
+
+def write_model_hash(model_path):
+    """
+    Write "<model>.sha256" (sha256sum format), read by ModelCache.java to detect a changed model
+    """
+    with open(model_path, 'rb') as model_file:
+        model_hash = hashlib.sha256(model_file.read()).hexdigest()
+    with open(model_path + '.sha256', 'w', encoding='utf-8') as f:
+        f.write(f"{model_hash}  {os.path.basename(model_path)}\n")
+
+
+if __name__ == '__main__':
+    input_name = onnx.load(fp32_model_path).graph.input[0].name  # "images"
+
+    # ========== FP16 (inputs/outputs stay float32, so the Java side is unchanged) ==========
+    print("\n=== FP16 conversion ===")
+    fp16_model = float16.convert_float_to_float16(onnx.load(fp32_model_path), keep_io_types=True)
+    onnx.save(fp16_model, fp16_model_path)
+    print(f"✅ FP16 model saved to: {fp16_model_path}")
+
+    # Shape inference + graph cleanup recommended before quantization
+    preprocessed_model_path = os.path.join(output_folder, 'yolo_v8n_400_preprocessed.onnx')
+    quant_pre_process(fp32_model_path, preprocessed_model_path)
+
+    # ========== INT8 dynamic (weights only, no calibration data needed) ==========
+    print("\n=== INT8 dynamic quantization ===")
+    quantize_dynamic(
+        preprocessed_model_path,
+        int8_dynamic_model_path,
+        weight_type=QuantType.QUInt8
+    )
+    print(f"✅ INT8 dynamic model saved to: {int8_dynamic_model_path}")
+
+    # ========== INT8 static (weights + activations, calibrated on Kibo images) ==========
+    print("\n=== INT8 static quantization ===")
+    data_reader = KiboCalibrationDataReader(calibration_image_folder, input_name,
+                                            img_size, num_calibration_images)
+    quantize_static(
+        preprocessed_model_path,
+        int8_static_model_path,
+        data_reader,
+        quant_format=QuantFormat.QDQ,
+        per_channel=True,
+        activation_type=QuantType.QUInt8,
+        weight_type=QuantType.QInt8,
+        calibrate_method=CalibrationMethod.MinMax
+    )
+    print(f"✅ INT8 static model saved to: {int8_static_model_path}")
+
+    os.remove(preprocessed_model_path)
+
+    for path in [fp32_model_path, fp16_model_path, int8_dynamic_model_path, int8_static_model_path]:
+        print(f"{os.path.basename(path)}: {os.path.getsize(path) / 1e6:.2f} MB")
+        write_model_hash(path)
+    print("Copy the variant files (with their .sha256 files) into app/src/main/assets and check them with "
+          "YOLOBenchmark.checkModelVariantParity() before switching ModelVariant.")
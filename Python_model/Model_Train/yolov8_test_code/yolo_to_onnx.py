@@ -1,4 +1,5 @@
 from ultralytics import YOLO
+import hashlib
 import shutil
 import os
 
@@ -14,11 +15,17 @@ print("\n🎯 Method 1: Export then move to target location")
 # Load your trained model
 model = YOLO(loadyolo_path)
 
+# Set True to export with a dynamic batch axis ([N, 3, 320, 320] input).
+# YOLODetectionService.detectBatch() then runs several crops in one session.run call;
+# with a fixed batch-1 model it falls back to one call per image.
+dynamic_batch = False
+
 # Export to default location first
 onnx_path = model.export(
     format='onnx', 
     imgsz=320, 
     opset=15,
+    dynamic=dynamic_batch,
     name='yolo_v8n_400'
 )
 
@@ -26,4 +33,23 @@ print(f"✅ Model exported to: {onnx_path}")
 
 # Move to your desired location
 shutil.move(onnx_path, target_path)
-print(f"✅ Model moved to: {target_path}")
\ No newline at end of file
+print(f"✅ Model moved to: {target_path}")
+
+# Content hash asset read by ModelCache on the robot: copy it into the app assets with the
+# model so a retrained model of the same size is re-extracted without hashing it on the device.
+hash_path = target_path + '.sha256'
+with open(target_path, 'rb') as model_file:
+    model_hash = hashlib.sha256(model_file.read()).hexdigest()
+with open(hash_path, 'w', encoding='utf-8') as f:
+    f.write(f"{model_hash}  {os.path.basename(target_path)}\n")
+print(f"✅ Model hash written to: {hash_path}")
+
+# Class list asset read by ClassMetadata on the robot ("name group" per line, class ID order).
+# Copy it into the app assets next to the model; a changed class list then needs no code edits.
+treasure_names = {'crystal', 'diamond', 'emerald'}
+classes_path = target_path.replace('.onnx', '_classes.txt')
+with open(classes_path, 'w', encoding='utf-8') as f:
+    for class_id in sorted(model.names):
+        name = model.names[class_id]
+        f.write(f"{name} {'treasure' if name in treasure_names else 'landmark'}\n")
+print(f"✅ Class list written to: {classes_path}")
\ No newline at end of file